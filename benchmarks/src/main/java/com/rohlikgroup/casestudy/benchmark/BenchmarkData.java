@@ -0,0 +1,75 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
+import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.OrderItem;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.entity.Product;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Representative payloads shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {
+    }
+
+    static ProductDto product(long id) {
+        return new ProductDto(id, "Free Range Eggs (12pk) #" + id, 120, new BigDecimal("3.49"));
+    }
+
+    static OrderDto order(int items) {
+        List<OrderItemDto> orderItems = new ArrayList<>(items);
+        for (int i = 1; i <= items; i++) {
+            orderItems.add(new OrderItemDto((long) i, product(i), 1 + i % 5));
+        }
+        return new OrderDto(1234L, "PAID", orderItems, LocalDateTime.of(2025, 4, 1, 14, 30, 15, 250_000_000));
+    }
+
+    static Product productEntity(long id) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName("Free Range Eggs (12pk) #" + id);
+        product.setStockAmount(120);
+        product.setPrice(new BigDecimal("3.49"));
+        return product;
+    }
+
+    static Order orderEntity(int items) {
+        Order order = new Order();
+        order.setId(1234L);
+        order.setStatus(OrderStatus.PAID);
+        order.setPaidAt(LocalDateTime.of(2025, 4, 1, 14, 30, 15, 250_000_000));
+        List<OrderItem> orderItems = new ArrayList<>(items);
+        for (int i = 1; i <= items; i++) {
+            OrderItem orderItem = new OrderItem();
+            orderItem.setId((long) i);
+            orderItem.setOrder(order);
+            orderItem.setProduct(productEntity(i));
+            orderItem.setQuantity(1 + i % 5);
+            orderItems.add(orderItem);
+        }
+        order.setOrderItems(orderItems);
+        return order;
+    }
+
+    /**
+     * A basket of {@code items} distinct products spread over the product ids {@code 1..productCount}.
+     */
+    static CreateOrderRequest createOrderRequest(int items, int productCount) {
+        List<OrderItemRequest> orderItems = new ArrayList<>(items);
+        for (int i = 0; i < items; i++) {
+            orderItems.add(new OrderItemRequest(1L + (long) i * productCount / items, 1));
+        }
+        return new CreateOrderRequest(orderItems);
+    }
+}
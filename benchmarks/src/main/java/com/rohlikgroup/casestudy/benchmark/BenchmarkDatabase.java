@@ -0,0 +1,53 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Postgres the benchmarked application runs against. An embedded server is started unless
+ * {@code -Dbenchmark.jdbc-url} points at a local database, which must be empty and accessible as the
+ * {@code rohlik} user so that Flyway and the unqualified native queries find the {@code rohlik} schema.
+ */
+final class BenchmarkDatabase implements AutoCloseable {
+
+    static final String USERNAME = "rohlik";
+    static final String PASSWORD = "rohlik";
+
+    private final EmbeddedPostgres embeddedPostgres;
+    private final String jdbcUrl;
+
+    private BenchmarkDatabase(EmbeddedPostgres embeddedPostgres, String jdbcUrl) {
+        this.embeddedPostgres = embeddedPostgres;
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    static BenchmarkDatabase start() throws IOException, SQLException {
+        String jdbcUrl = System.getProperty("benchmark.jdbc-url");
+        if (jdbcUrl != null) {
+            return new BenchmarkDatabase(null, jdbcUrl);
+        }
+
+        EmbeddedPostgres embeddedPostgres = EmbeddedPostgres.builder().start();
+        try (Connection connection = embeddedPostgres.getPostgresDatabase().getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("CREATE ROLE " + USERNAME + " LOGIN PASSWORD '" + PASSWORD + "'");
+            statement.execute("CREATE DATABASE rohlik OWNER " + USERNAME);
+        }
+        return new BenchmarkDatabase(embeddedPostgres, embeddedPostgres.getJdbcUrl(USERNAME, "rohlik"));
+    }
+
+    String jdbcUrl() {
+        return jdbcUrl;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (embeddedPostgres != null) {
+            embeddedPostgres.close();
+        }
+    }
+}
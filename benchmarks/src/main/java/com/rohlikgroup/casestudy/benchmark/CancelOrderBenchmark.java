@@ -0,0 +1,52 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code OrderService#cancelOrder} of a freshly created pending order. Creating the order happens in an
+ * invocation level setup, which is acceptable here because a single cancellation takes milliseconds.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CancelOrderBenchmark {
+
+    @Param({"1", "20"})
+    public int basketSize;
+
+    private CreateOrderRequest request;
+    private long orderId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        request = BenchmarkData.createOrderRequest(basketSize, CaseStudyApplication.PRODUCT_COUNT);
+    }
+
+    @Setup(Level.Invocation)
+    public void createPendingOrder(CaseStudyApplication application) {
+        orderId = application.orderService.createOrder(request).id();
+    }
+
+    @Benchmark
+    public OrderDto cancelOrder(CaseStudyApplication application) {
+        return application.orderService.cancelOrder(orderId);
+    }
+}
@@ -0,0 +1,60 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.RecordedCaseStudyTemplateApplication;
+import com.rohlikgroup.casestudy.service.OrderService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+/**
+ * The application context shared by the database backed benchmarks of a fork. Redis is switched off, the
+ * periodic expiry is pushed out of the measurement window and the catalog is topped up to
+ * {@link #PRODUCT_COUNT} well stocked products.
+ */
+@State(Scope.Benchmark)
+public class CaseStudyApplication {
+
+    static final int PRODUCT_COUNT = 200;
+
+    private BenchmarkDatabase database;
+    private ConfigurableApplicationContext context;
+
+    OrderService orderService;
+    JdbcTemplate jdbcTemplate;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        database = BenchmarkDatabase.start();
+        context = new SpringApplicationBuilder(RecordedCaseStudyTemplateApplication.class)
+                .web(WebApplicationType.NONE)
+                //arguments, because default properties would lose to application.properties
+                .run("--spring.datasource.url=" + database.jdbcUrl(),
+                        "--spring.datasource.username=" + BenchmarkDatabase.USERNAME,
+                        "--spring.datasource.password=" + BenchmarkDatabase.PASSWORD,
+                        "--app.product-cache.redis.enabled=false",
+                        "--app.order-expiry.wheel.redis-enabled=false",
+                        "--app.order-expiry.base-delay=1d",
+                        "--logging.level.root=WARN");
+        orderService = context.getBean(OrderService.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+
+        jdbcTemplate.update("""
+                INSERT INTO products (name, stock_amount, price)
+                SELECT 'Benchmark product ' || n, 0, 1.99 FROM generate_series(1, ? - (SELECT count(*) FROM products)) n
+                """, PRODUCT_COUNT);
+        //enough stock that no order of a run is rejected
+        jdbcTemplate.update("UPDATE products SET stock_amount = 1000000000");
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws Exception {
+        context.close();
+        database.close();
+    }
+}
@@ -0,0 +1,87 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.Product;
+import com.rohlikgroup.casestudy.mapper.OrderItemMapperImpl;
+import com.rohlikgroup.casestudy.mapper.OrderMapper;
+import com.rohlikgroup.casestudy.mapper.OrderMapperImpl;
+import com.rohlikgroup.casestudy.mapper.ProductMapper;
+import com.rohlikgroup.casestudy.mapper.ProductMapperImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The MapStruct conversions between entities and DTOs, wired the way the application wires them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MapperBenchmark {
+
+    @Param({"1", "20"})
+    public int orderItems;
+
+    private AnnotationConfigApplicationContext context;
+    private OrderMapper orderMapper;
+    private ProductMapper productMapper;
+
+    private Order order;
+    private OrderDto orderDto;
+    private Product product;
+    private ProductDto productDto;
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(OrderMapperImpl.class, OrderItemMapperImpl.class, ProductMapperImpl.class);
+        orderMapper = context.getBean(OrderMapper.class);
+        productMapper = context.getBean(ProductMapper.class);
+
+        order = BenchmarkData.orderEntity(orderItems);
+        orderDto = BenchmarkData.order(orderItems);
+        product = BenchmarkData.productEntity(42);
+        productDto = BenchmarkData.product(42);
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public OrderDto orderToDto() {
+        return orderMapper.map(order);
+    }
+
+    @Benchmark
+    public Order dtoToOrder() {
+        return orderMapper.map(orderDto);
+    }
+
+    @Benchmark
+    public ProductDto productToDto() {
+        return productMapper.map(product);
+    }
+
+    @Benchmark
+    public Product dtoToProduct() {
+        return productMapper.map(productDto);
+    }
+}
@@ -0,0 +1,109 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.OrderItem;
+import com.rohlikgroup.casestudy.entity.Product;
+import com.rohlikgroup.casestudy.mapper.OrderItemMapperImpl;
+import com.rohlikgroup.casestudy.mapper.OrderItemRows;
+import com.rohlikgroup.casestudy.mapper.OrderJsonWriter;
+import com.rohlikgroup.casestudy.mapper.OrderMapper;
+import com.rohlikgroup.casestudy.mapper.OrderMapperImpl;
+import com.rohlikgroup.casestudy.mapper.ProductMapperImpl;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page of the order listing written as JSON: entities mapped to DTOs (the former pipeline), projected rows assembled
+ * into DTOs, and projected rows written straight by {@link OrderJsonWriter}. Run with {@code -prof gc} to compare the
+ * allocation per page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderJsonBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"1", "20"})
+    public int orderItems;
+
+    private AnnotationConfigApplicationContext context;
+    private OrderMapper orderMapper;
+    private ObjectWriter objectWriter;
+    private OrderJsonWriter orderJsonWriter;
+
+    private List<Order> orders;
+    private List<OrderItemRow> rows;
+    private final OutputStream outputStream = OutputStream.nullOutputStream();
+
+    @Setup
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(OrderMapperImpl.class, OrderItemMapperImpl.class, ProductMapperImpl.class);
+        orderMapper = context.getBean(OrderMapper.class);
+        //configured like the object mapper of the application
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        //the message converter leaves the response stream open as well
+        objectWriter = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        orderJsonWriter = new OrderJsonWriter(objectMapper);
+
+        orders = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            orders.add(BenchmarkData.orderEntity(orderItems));
+        }
+        rows = new ArrayList<>(PAGE_SIZE * orderItems);
+        for (Order order : orders) {
+            for (OrderItem item : order.getOrderItems()) {
+                Product product = item.getProduct();
+                rows.add(new OrderItemRow(order.getId(), order.getStatus(), order.getPaidAt(), item.getId(), item.getQuantity(),
+                        product.getId(), product.getName(), product.getTotalStockAmount(), product.getPrice()));
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public void mappedDtos() throws IOException {
+        List<OrderDto> orderDtos = orders.stream().map(orderMapper::map).toList();
+        objectWriter.writeValue(outputStream, orderDtos);
+    }
+
+    @Benchmark
+    public void assembledDtos() throws IOException {
+        objectWriter.writeValue(outputStream, OrderItemRows.toOrders(rows));
+    }
+
+    @Benchmark
+    public void directWriter() throws IOException {
+        orderJsonWriter.writeOrders(outputStream, rows);
+    }
+}
@@ -0,0 +1,107 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.OrderItem;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.entity.Product;
+import com.rohlikgroup.casestudy.service.impl.OrderRequests;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The in-memory part of {@code OrderService#createOrder}: the duplicate check, the arrays for the stock reservation,
+ * the lookup of the loaded products and the pending order entity. {@code streams} is the former implementation with
+ * streams and collectors, {@code orderRequests} the current one. Run with {@code -prof gc} to compare the bytes
+ * allocated per order ({@code gc.alloc.rate.norm}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OrderRequestBenchmark {
+
+    @Param({"1", "5", "20", "50"})
+    public int basketSize;
+
+    private CreateOrderRequest request;
+    private List<Product> products;
+    private Set<Long> reservedProductIds;
+
+    @Setup
+    public void setUp() {
+        request = BenchmarkData.createOrderRequest(basketSize, CaseStudyApplication.PRODUCT_COUNT);
+        products = new ArrayList<>(basketSize);
+        for (OrderItemRequest item : request.orderItems()) {
+            products.add(BenchmarkData.productEntity(item.productId()));
+        }
+        reservedProductIds = request.orderItems().stream().map(OrderItemRequest::productId).collect(Collectors.toSet());
+    }
+
+    @Benchmark
+    public Order streams(Blackhole blackhole) {
+        List<OrderItemRequest> itemRequests = request.orderItems();
+        boolean duplicates = itemRequests.stream()
+                .map(OrderItemRequest::productId)
+                .collect(Collectors.groupingBy(id -> id, Collectors.counting()))
+                .values().stream()
+                .anyMatch(count -> count > 1);
+        blackhole.consume(duplicates);
+
+        Long[] productIds = itemRequests.stream().map(OrderItemRequest::productId).toArray(Long[]::new);
+        Integer[] quantities = itemRequests.stream().map(OrderItemRequest::quantity).toArray(Integer[]::new);
+        blackhole.consume(quantities);
+        Map<Long, Product> productsById = products.stream().collect(Collectors.toMap(Product::getId, Function.identity()));
+        blackhole.consume(Arrays.stream(productIds).filter(id -> !productsById.containsKey(id)).toList());
+        blackhole.consume(Arrays.stream(productIds).filter(id -> !reservedProductIds.contains(id)).toList());
+
+        Order order = new Order();
+        order.setStatus(OrderStatus.PENDING);
+        order.setOrderItems(itemRequests.stream().map(orderItemRequest -> {
+            OrderItem orderItem = new OrderItem();
+            orderItem.setProduct(productsById.get(orderItemRequest.productId()));
+            orderItem.setQuantity(orderItemRequest.quantity());
+            orderItem.setOrder(order);
+            return orderItem;
+        }).toList());
+        return order;
+    }
+
+    @Benchmark
+    public Order orderRequests(Blackhole blackhole) {
+        List<OrderItemRequest> itemRequests = request.orderItems();
+        blackhole.consume(OrderRequests.hasDuplicateProducts(itemRequests));
+
+        Long[] productIds = OrderRequests.productIds(itemRequests);
+        blackhole.consume(OrderRequests.quantities(itemRequests));
+        Map<Long, Product> productsById = OrderRequests.productsById(products);
+        for (Long productId : productIds) {
+            blackhole.consume(productsById.containsKey(productId));
+        }
+        blackhole.consume(reservedProductIds.size() < productIds.length);
+
+        return OrderRequests.pendingOrder(itemRequests, productsById);
+    }
+}
@@ -0,0 +1,23 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import java.util.List;
+
+/**
+ * Prints the payload size of every format and payload used by {@link RedisSerializerBenchmark} as CSV.
+ */
+public final class PayloadSizeReport {
+
+    private PayloadSizeReport() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("format,payload,bytes");
+        for (String payload : List.of("product", "order")) {
+            Object value = RedisSerializerBenchmark.payload(payload);
+            for (String format : List.of("compact", "jdk", "json")) {
+                int size = RedisSerializerBenchmark.serializer(format, value.getClass()).serialize(value).length;
+                System.out.println(format + "," + payload + "," + size);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.rohlikgroup.casestudy.cache.codec.CompactRedisSerializer;
+import com.rohlikgroup.casestudy.cache.codec.OrderDtoCodec;
+import com.rohlikgroup.casestudy.cache.codec.ProductDtoCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.Jackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode and decode cost of the Redis value serializers for the cached DTOs. Payload sizes are printed by
+ * {@link PayloadSizeReport}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedisSerializerBenchmark {
+
+    @Param({"compact", "jdk", "json"})
+    public String format;
+
+    @Param({"product", "order"})
+    public String payload;
+
+    private RedisSerializer<Object> serializer;
+    private Object value;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() {
+        value = payload(payload);
+        serializer = serializer(format, value.getClass());
+        bytes = serializer.serialize(value);
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return serializer.serialize(value);
+    }
+
+    @Benchmark
+    public Object decode() {
+        return serializer.deserialize(bytes);
+    }
+
+    static Object payload(String payload) {
+        return switch (payload) {
+            case "product" -> BenchmarkData.product(42);
+            case "order" -> BenchmarkData.order(20);
+            default -> throw new IllegalArgumentException("Unknown payload " + payload);
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static RedisSerializer<Object> serializer(String format, Class<?> type) {
+        return switch (format) {
+            case "compact" -> new CompactRedisSerializer(List.of(new ProductDtoCodec(), new OrderDtoCodec()));
+            case "jdk" -> RedisSerializer.java();
+            case "json" -> (RedisSerializer<Object>) new Jackson2JsonRedisSerializer<>(JsonMapper.builder().findAndAddModules().build(), type);
+            default -> throw new IllegalArgumentException("Unknown format " + format);
+        };
+    }
+}
@@ -0,0 +1,58 @@
+package com.rohlikgroup.casestudy.benchmark;
+
+import com.rohlikgroup.casestudy.service.ExpiryRunResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to drain a backlog of overdue pending orders through {@code OrderService#releaseUnpaidOrders}, calling
+ * it again for as long as a run reports remaining backlog. Every iteration seeds a fresh backlog of orders with
+ * three items each.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReleaseUnpaidOrdersBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int backlog;
+
+    @Setup(Level.Iteration)
+    public void seedBacklog(CaseStudyApplication application) {
+        application.jdbcTemplate.update("""
+                WITH seeded AS (
+                    INSERT INTO orders (order_status, created_at)
+                    SELECT CAST('PENDING' AS order_status), now() - interval '1 day' FROM generate_series(1, ?)
+                    RETURNING id)
+                INSERT INTO order_items (order_id, product_id, quantity)
+                SELECT s.id, 1 + (s.id * 7 + k) % ?, 1 FROM seeded s CROSS JOIN generate_series(0, 2) k
+                """, backlog, CaseStudyApplication.PRODUCT_COUNT);
+        application.jdbcTemplate.execute("ANALYZE orders");
+    }
+
+    @Benchmark
+    public int drainBacklog(CaseStudyApplication application) {
+        int expiredOrders = 0;
+        ExpiryRunResult result;
+        do {
+            result = application.orderService.releaseUnpaidOrders();
+            expiredOrders += result.expiredOrders();
+        } while (result.backlogRemaining());
+        return expiredOrders;
+    }
+}
@@ -0,0 +1,265 @@
+package com.rohlikgroup.casestudy.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.util.TransactionUtils;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Read-through product catalog cache with two tiers: a size and TTL bounded in-process cache in front of Redis.
+ * <p>
+ * Catalog pages are only cached in the local tier, as they cannot be invalidated in Redis by key. Invalidations are
+ * applied after the surrounding transaction commits and are broadcast over Redis pub/sub, so the local tier of the
+ * other nodes is dropped as well. They drop only the changed products and the pages whose ID range covers them.
+ * <p>
+ * Every eviction stamps the evicted products with a new generation in Redis. A load writes its result to Redis only
+ * while the generation is still the one it saw before reading the database, so a load racing with a change can't put
+ * the old state back once the change was evicted. When Redis is disabled or unavailable the cache degrades to the
+ * local tier only.
+ */
+@Component
+@Slf4j
+public class ProductCache implements MessageListener {
+
+    public static final String INVALIDATION_CHANNEL = "products:invalidation";
+
+    private static final String PRODUCT_KEY_PREFIX = "products:";
+    private static final String GENERATION_KEY_PREFIX = "products:generation:";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean redisEnabled;
+    private final Duration replicaEvictionDelay;
+    //null without a replica
+    private final ScheduledExecutorService replicaEvictions;
+    private final RedisScript<Long> writeIfUnchangedScript;
+    private final RedisScript<Long> evictScript;
+    private final AsyncCache<Long, ProductDto> localProducts;
+    private final AsyncCache<PageKey, KeysetPage<ProductDto>> localProductPages;
+
+    public ProductCache(RedisTemplate<String, Object> redisTemplate,
+                        @Value("${app.product-cache.local.maximum-size:10000}") long localMaximumSize,
+                        @Value("${app.product-cache.local.ttl:30s}") Duration localTtl,
+                        @Value("${app.product-cache.redis.enabled:true}") boolean redisEnabled,
+                        @Value("${app.product-cache.redis.ttl:10m}") Duration redisTtl,
+                        @Value("${app.datasource.replica.enabled:false}") boolean replicaEnabled,
+                        @Value("${app.datasource.replica.max-lag:1s}") Duration replicaMaxLag,
+                        @Value("${app.datasource.replica.lag-check-interval-ms:1000}") long replicaLagCheckIntervalMs) {
+        this.redisTemplate = redisTemplate;
+        this.redisEnabled = redisEnabled;
+        this.replicaEvictionDelay = replicaEnabled ? replicaMaxLag.plusMillis(replicaLagCheckIntervalMs) : null;
+        //the repeated evictions call Redis, so they get their own thread instead of the common fork join pool
+        this.replicaEvictions = replicaEnabled ? Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("product-cache-replica-eviction").daemon().factory()) : null;
+        //a missing generation reads as the empty string, which is how the value serializer writes null
+        //generations expire with the values, they only have to outlive the loads that saw them
+        this.writeIfUnchangedScript = RedisScript.of("""
+                if (redis.call('GET', KEYS[2]) or '') == ARGV[1] then
+                    redis.call('SET', KEYS[1], ARGV[2], 'PX', %d)
+                    return 1
+                end
+                return 0
+                """.formatted(redisTtl.toMillis()), Long.class);
+        this.evictScript = RedisScript.of("""
+                for i = 1, #KEYS, 2 do
+                    redis.call('DEL', KEYS[i])
+                    redis.call('SET', KEYS[i + 1], ARGV[1], 'PX', %d)
+                end
+                return #KEYS / 2
+                """.formatted(redisTtl.toMillis()), Long.class);
+        this.localProducts = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtl)
+                .buildAsync();
+        this.localProductPages = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfterWrite(localTtl)
+                .buildAsync();
+    }
+
+    /**
+     * Returns the product from the local tier, then from Redis, and finally from the loader.
+     *
+     * @param productId the ID of the product
+     * @param loader    loads the product from the database, may throw if the product does not exist
+     * @return the product
+     */
+    public ProductDto getProduct(Long productId, Function<Long, ProductDto> loader) {
+        return getOrLoad(localProducts, productId, id -> {
+            String key = PRODUCT_KEY_PREFIX + id;
+            String generationKey = GENERATION_KEY_PREFIX + id;
+            //the generation is read before the database, a change evicted after that replaces it
+            List<Object> cached = readRedis(key, generationKey);
+            if (cached != null && cached.get(0) instanceof ProductDto product) {
+                return product;
+            }
+            ProductDto loaded = loader.apply(id);
+            if (cached != null) {
+                writeRedisIfUnchanged(key, generationKey, cached.get(1), loaded);
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * Returns a catalog page from the local tier or from the loader.
+     *
+     * @param afterId the ID to continue after
+     * @param limit   the page size
+     * @param loader  loads the page from the database
+     * @return the page
+     */
+    public KeysetPage<ProductDto> getProductPage(long afterId, int limit, Supplier<KeysetPage<ProductDto>> loader) {
+        return getOrLoad(localProductPages, new PageKey(afterId, limit), key -> loader.get());
+    }
+
+    /**
+     * Evicts the given products and the cached catalog pages covering them from both tiers on every node. When called
+     * inside a transaction, the eviction happens after commit so that readers cannot re-cache the old state. Readers
+     * served by a lagging replica still can, so with a replica the eviction is repeated once the replica must have
+     * caught up.
+     *
+     * @param productIds the IDs of the changed products, an empty collection evicts nothing
+     */
+    public void evict(Collection<Long> productIds) {
+        if (productIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(productIds);
+        TransactionUtils.afterCommit(() -> {
+            evictNow(ids);
+            if (replicaEvictions != null) {
+                replicaEvictions.schedule(() -> evictNow(ids), replicaEvictionDelay.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        if (replicaEvictions != null) {
+            replicaEvictions.shutdownNow();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Object body = redisTemplate.getValueSerializer().deserialize(message.getBody());
+        if (body instanceof String ids && !ids.isEmpty()) {
+            evictLocal(Arrays.stream(ids.split(",")).map(Long::valueOf).toList());
+        }
+    }
+
+    private void evictNow(List<Long> ids) {
+        evictLocal(ids);
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            List<String> keys = new ArrayList<>(ids.size() * 2);
+            for (Long id : ids) {
+                keys.add(PRODUCT_KEY_PREFIX + id);
+                keys.add(GENERATION_KEY_PREFIX + id);
+            }
+            redisTemplate.execute(evictScript, keys, UUID.randomUUID().toString());
+            redisTemplate.convertAndSend(INVALIDATION_CHANNEL, ids.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        } catch (RuntimeException e) {
+            log.warn("Failed to evict products {} from Redis: {}", ids, e.getMessage());
+        }
+    }
+
+    private void evictLocal(List<Long> ids) {
+        localProducts.synchronous().invalidateAll(ids);
+        //a keyset page only changes with the products in its ID range, the pages after it keep their cursor
+        localProductPages.asMap().entrySet().removeIf(page -> coversAny(page.getKey(), page.getValue(), ids));
+    }
+
+    private static boolean coversAny(PageKey key, CompletableFuture<KeysetPage<ProductDto>> page, List<Long> ids) {
+        if (!page.isDone() || page.isCompletedExceptionally()) {
+            //a page still loading may have read the old state
+            return true;
+        }
+        Long lastId = page.join().nextCursor();
+        for (Long id : ids) {
+            if (id > key.afterId() && (lastId == null || id <= lastId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cached value or loads it once for all concurrent callers. Unlike {@code Cache.get}, the loader runs on
+     * the calling thread outside the cache's internal lock, so a virtual thread blocking on I/O in it is not pinned.
+     */
+    private static <K, V> V getOrLoad(AsyncCache<K, V> cache, K key, Function<K, V> loader) {
+        CompletableFuture<V> loading = new CompletableFuture<>();
+        CompletableFuture<V> existing = cache.asMap().putIfAbsent(key, loading);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            V value = loader.apply(key);
+            loading.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            //failed futures are dropped by the cache, the next call loads again
+            loading.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the cached value and the generation of the product, each {@code null} when missing, or {@code null} when
+     * Redis can't be read
+     */
+    private List<Object> readRedis(String key, String generationKey) {
+        if (!redisEnabled) {
+            return null;
+        }
+        try {
+            List<Object> values = redisTemplate.opsForValue().multiGet(List.of(key, generationKey));
+            return values == null || values.size() != 2 ? null : values;
+        } catch (RuntimeException e) {
+            log.warn("Failed to read {} from Redis: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeRedisIfUnchanged(String key, String generationKey, Object generation, ProductDto value) {
+        try {
+            redisTemplate.execute(writeIfUnchangedScript, List.of(key, generationKey), generation, value);
+        } catch (RuntimeException e) {
+            log.warn("Failed to write {} to Redis: {}", key, e.getMessage());
+        }
+    }
+
+    private record PageKey(long afterId, int limit) {
+    }
+}
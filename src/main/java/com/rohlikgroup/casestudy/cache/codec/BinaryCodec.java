@@ -0,0 +1,38 @@
+package com.rohlikgroup.casestudy.cache.codec;
+
+/**
+ * Schema-aware binary encoding of a single value type, registered in {@link CompactRedisSerializer}.
+ * <p>
+ * The type ID is written in front of every top-level value, so it must be unique and must never be reused for a
+ * different layout. Incompatible layout changes require a new {@link CompactRedisSerializer#FORMAT_VERSION}.
+ *
+ * @param <T> the encoded type
+ */
+public interface BinaryCodec<T> {
+
+    /**
+     * @return the unique ID of the encoded type, must be at least {@link CompactRedisSerializer#FIRST_CODEC_TYPE_ID}
+     */
+    int typeId();
+
+    /**
+     * @return the encoded type
+     */
+    Class<T> type();
+
+    /**
+     * Writes the value without any type information.
+     *
+     * @param value  the value to write, never {@code null}
+     * @param output the output to write to
+     */
+    void write(T value, BinaryWriter output);
+
+    /**
+     * Reads a value previously written by {@link #write(Object, BinaryWriter)}.
+     *
+     * @param input the input to read from
+     * @return the read value
+     */
+    T read(BinaryReader input);
+}
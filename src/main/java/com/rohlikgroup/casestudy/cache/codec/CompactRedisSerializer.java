@@ -0,0 +1,125 @@
+package com.rohlikgroup.casestudy.cache.codec;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Redis value serializer writing a format version byte followed by a varint type ID and the value.
+ * <p>
+ * Values with a registered {@link BinaryCodec} use its compact layout, strings and lists are handled natively and
+ * any other value falls back to JDK serialization, so the serializer can replace {@link RedisSerializer#java()}
+ * without breaking values nobody wrote a codec for. Payloads with an unknown version are rejected, callers
+ * reading a cache should treat that as a miss.
+ */
+public class CompactRedisSerializer implements RedisSerializer<Object> {
+
+    public static final int FORMAT_VERSION = 1;
+    public static final int FIRST_CODEC_TYPE_ID = 16;
+
+    private static final int JDK_TYPE_ID = 1;
+    private static final int STRING_TYPE_ID = 2;
+    private static final int LIST_TYPE_ID = 3;
+    private static final int NULL_TYPE_ID = 4;
+
+    private final RedisSerializer<Object> fallback = RedisSerializer.java();
+    private final Map<Class<?>, BinaryCodec<?>> codecsByType = new HashMap<>();
+    private final Map<Integer, BinaryCodec<?>> codecsById = new HashMap<>();
+
+    public CompactRedisSerializer(List<BinaryCodec<?>> codecs) {
+        for (BinaryCodec<?> codec : codecs) {
+            if (codec.typeId() < FIRST_CODEC_TYPE_ID) {
+                throw new IllegalArgumentException("Type ID " + codec.typeId() + " of " + codec.type() + " is reserved");
+            }
+            if (codecsById.putIfAbsent(codec.typeId(), codec) != null) {
+                throw new IllegalArgumentException("Duplicate type ID " + codec.typeId() + " for " + codec.type());
+            }
+            codecsByType.put(codec.type(), codec);
+        }
+    }
+
+    @Override
+    public byte[] serialize(Object value) throws SerializationException {
+        if (value == null) {
+            return new byte[0];
+        }
+        try {
+            BinaryWriter output = new BinaryWriter(64);
+            output.writeByte(FORMAT_VERSION);
+            writeValue(value, output);
+            return output.toByteArray();
+        } catch (RuntimeException e) {
+            throw new SerializationException("Cannot serialize " + value.getClass(), e);
+        }
+    }
+
+    @Override
+    public Object deserialize(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        try {
+            BinaryReader input = new BinaryReader(bytes);
+            int version = input.readByte();
+            if (version != FORMAT_VERSION) {
+                throw new SerializationException("Unsupported format version " + version);
+            }
+            return readValue(input);
+        } catch (RuntimeException e) {
+            throw e instanceof SerializationException ? e : new SerializationException("Cannot deserialize value", e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(Object value, BinaryWriter output) {
+        if (value == null) {
+            output.writeVarLong(NULL_TYPE_ID);
+            return;
+        }
+        BinaryCodec<Object> codec = (BinaryCodec<Object>) codecsByType.get(value.getClass());
+        if (codec != null) {
+            output.writeVarLong(codec.typeId());
+            codec.write(value, output);
+        } else if (value instanceof String string) {
+            output.writeVarLong(STRING_TYPE_ID);
+            output.writeString(string);
+        } else if (value instanceof List<?> list) {
+            output.writeVarLong(LIST_TYPE_ID);
+            output.writeVarLong(list.size());
+            for (Object element : list) {
+                writeValue(element, output);
+            }
+        } else {
+            output.writeVarLong(JDK_TYPE_ID);
+            output.writeBytes(fallback.serialize(value));
+        }
+    }
+
+    private Object readValue(BinaryReader input) {
+        int typeId = input.readVarInt();
+        return switch (typeId) {
+            case NULL_TYPE_ID -> null;
+            case STRING_TYPE_ID -> input.readString();
+            case LIST_TYPE_ID -> {
+                int size = input.readVarInt();
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                yield list;
+            }
+            case JDK_TYPE_ID -> fallback.deserialize(input.readBytes());
+            default -> {
+                BinaryCodec<?> codec = codecsById.get(typeId);
+                if (codec == null) {
+                    throw new SerializationException("Unknown type ID " + typeId);
+                }
+                yield codec.read(input);
+            }
+        };
+    }
+}
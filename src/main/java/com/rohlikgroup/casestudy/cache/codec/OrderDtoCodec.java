@@ -0,0 +1,121 @@
+package com.rohlikgroup.casestudy.cache.codec;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout: a presence bit set followed by the present fields - id (varint), status (varint code of the
+ * {@link OrderStatus}, fixed per status and independent of the declaration order), items (count followed by the items) and paid at (timestamp). Every item is a presence bit set followed by
+ * id (varint), product ({@link ProductDtoCodec} layout) and quantity (zig-zag varint).
+ */
+public class OrderDtoCodec implements BinaryCodec<OrderDto> {
+
+    public static final int TYPE_ID = 17;
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_STATUS = 1 << 1;
+    private static final int HAS_ITEMS = 1 << 2;
+    private static final int HAS_PAID_AT = 1 << 3;
+
+    private static final int ITEM_HAS_ID = 1;
+    private static final int ITEM_HAS_PRODUCT = 1 << 1;
+    private static final int ITEM_HAS_QUANTITY = 1 << 2;
+
+    private final ProductDtoCodec productCodec = new ProductDtoCodec();
+
+    @Override
+    public int typeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public Class<OrderDto> type() {
+        return OrderDto.class;
+    }
+
+    @Override
+    public void write(OrderDto value, BinaryWriter output) {
+        output.writeByte((value.id() != null ? HAS_ID : 0)
+                | (value.status() != null ? HAS_STATUS : 0)
+                | (value.orderItems() != null ? HAS_ITEMS : 0)
+                | (value.paidAt() != null ? HAS_PAID_AT : 0));
+        if (value.id() != null) {
+            output.writeVarLong(value.id());
+        }
+        if (value.status() != null) {
+            output.writeVarLong(statusCode(OrderStatus.valueOf(value.status())));
+        }
+        if (value.orderItems() != null) {
+            output.writeVarLong(value.orderItems().size());
+            for (OrderItemDto item : value.orderItems()) {
+                writeItem(item, output);
+            }
+        }
+        if (value.paidAt() != null) {
+            output.writeTimestamp(value.paidAt());
+        }
+    }
+
+    @Override
+    public OrderDto read(BinaryReader input) {
+        int fields = input.readByte();
+        Long id = (fields & HAS_ID) != 0 ? input.readVarLong() : null;
+        String status = (fields & HAS_STATUS) != 0 ? status(input.readVarInt()).name() : null;
+        List<OrderItemDto> items = null;
+        if ((fields & HAS_ITEMS) != 0) {
+            int size = input.readVarInt();
+            items = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                items.add(readItem(input));
+            }
+        }
+        return new OrderDto(id, status, items, (fields & HAS_PAID_AT) != 0 ? input.readTimestamp() : null);
+    }
+
+    //the codes are part of the cached values, a new status gets a new code and existing codes never change
+    private static int statusCode(OrderStatus status) {
+        return switch (status) {
+            case PENDING -> 0;
+            case CANCELED -> 1;
+            case EXPIRED -> 2;
+            case PAID -> 3;
+        };
+    }
+
+    private static OrderStatus status(int code) {
+        return switch (code) {
+            case 0 -> OrderStatus.PENDING;
+            case 1 -> OrderStatus.CANCELED;
+            case 2 -> OrderStatus.EXPIRED;
+            case 3 -> OrderStatus.PAID;
+            default -> throw new IllegalArgumentException("Unknown order status code " + code);
+        };
+    }
+
+    private void writeItem(OrderItemDto item, BinaryWriter output) {
+        output.writeByte((item.id() != null ? ITEM_HAS_ID : 0)
+                | (item.product() != null ? ITEM_HAS_PRODUCT : 0)
+                | (item.quantity() != null ? ITEM_HAS_QUANTITY : 0));
+        if (item.id() != null) {
+            output.writeVarLong(item.id());
+        }
+        if (item.product() != null) {
+            productCodec.write(item.product(), output);
+        }
+        if (item.quantity() != null) {
+            output.writeSignedVarLong(item.quantity());
+        }
+    }
+
+    private OrderItemDto readItem(BinaryReader input) {
+        int fields = input.readByte();
+        return new OrderItemDto(
+                (fields & ITEM_HAS_ID) != 0 ? input.readVarLong() : null,
+                (fields & ITEM_HAS_PRODUCT) != 0 ? productCodec.read(input) : null,
+                (fields & ITEM_HAS_QUANTITY) != 0 ? Math.toIntExact(input.readSignedVarLong()) : null);
+    }
+}
@@ -0,0 +1,57 @@
+package com.rohlikgroup.casestudy.cache.codec;
+
+import com.rohlikgroup.casestudy.dto.ProductDto;
+
+/**
+ * Layout: a presence bit set followed by the present fields - id (varint), name (string),
+ * stock amount (zig-zag varint) and price (decimal).
+ */
+public class ProductDtoCodec implements BinaryCodec<ProductDto> {
+
+    public static final int TYPE_ID = 16;
+
+    private static final int HAS_ID = 1;
+    private static final int HAS_NAME = 1 << 1;
+    private static final int HAS_STOCK_AMOUNT = 1 << 2;
+    private static final int HAS_PRICE = 1 << 3;
+
+    @Override
+    public int typeId() {
+        return TYPE_ID;
+    }
+
+    @Override
+    public Class<ProductDto> type() {
+        return ProductDto.class;
+    }
+
+    @Override
+    public void write(ProductDto value, BinaryWriter output) {
+        output.writeByte((value.id() != null ? HAS_ID : 0)
+                | (value.name() != null ? HAS_NAME : 0)
+                | (value.stockAmount() != null ? HAS_STOCK_AMOUNT : 0)
+                | (value.price() != null ? HAS_PRICE : 0));
+        if (value.id() != null) {
+            output.writeVarLong(value.id());
+        }
+        if (value.name() != null) {
+            output.writeString(value.name());
+        }
+        if (value.stockAmount() != null) {
+            output.writeSignedVarLong(value.stockAmount());
+        }
+        if (value.price() != null) {
+            output.writeDecimal(value.price());
+        }
+    }
+
+    @Override
+    public ProductDto read(BinaryReader input) {
+        int fields = input.readByte();
+        return new ProductDto(
+                (fields & HAS_ID) != 0 ? input.readVarLong() : null,
+                (fields & HAS_NAME) != 0 ? input.readString() : null,
+                (fields & HAS_STOCK_AMOUNT) != 0 ? Math.toIntExact(input.readSignedVarLong()) : null,
+                (fields & HAS_PRICE) != 0 ? input.readDecimal() : null);
+    }
+}
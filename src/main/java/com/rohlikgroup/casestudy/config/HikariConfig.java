@@ -2,11 +2,10 @@ package com.rohlikgroup.casestudy.config;
 
 import com.zaxxer.hikari.HikariDataSource;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import javax.sql.DataSource;
-
 @Configuration
 public class HikariConfig {
 
@@ -22,8 +21,10 @@ public class HikariConfig {
     @Value("${spring.datasource.driver-class-name}")
     private String dbDriverClassName;
 
+    //the pool settings (spring.datasource.hikari.*) are bound onto the returned data source
     @Bean
-    public DataSource dataSource() {
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource dataSource() {
         HikariDataSource dataSource = new HikariDataSource();
         dataSource.setDriverClassName(dbDriverClassName);
         dataSource.setJdbcUrl(dbUrl);
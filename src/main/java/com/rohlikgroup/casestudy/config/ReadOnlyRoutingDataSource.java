@@ -0,0 +1,27 @@
+package com.rohlikgroup.casestudy.config;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Routes the connections of read-only transactions to the read replica while {@link ReplicaLagGuard} considers it
+ * current enough, and all other connections to the primary.
+ * <p>
+ * The transaction is only known to be read-only once it has begun, so this data source must sit behind a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy} that fetches the connection on the first
+ * statement.
+ */
+@RequiredArgsConstructor
+public class ReadOnlyRoutingDataSource extends AbstractRoutingDataSource {
+
+    public static final String PRIMARY = "primary";
+    public static final String REPLICA = "replica";
+
+    private final ReplicaLagGuard replicaLagGuard;
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && replicaLagGuard.isReplicaUsable() ? REPLICA : PRIMARY;
+    }
+}
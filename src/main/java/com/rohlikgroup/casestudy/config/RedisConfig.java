@@ -1,12 +1,21 @@
 package com.rohlikgroup.casestudy.config;
 
+import com.rohlikgroup.casestudy.cache.ProductCache;
+import com.rohlikgroup.casestudy.cache.codec.CompactRedisSerializer;
+import com.rohlikgroup.casestudy.cache.codec.OrderDtoCodec;
+import com.rohlikgroup.casestudy.cache.codec.ProductDtoCodec;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.util.List;
+
 @Configuration
 public class RedisConfig {
 
@@ -15,12 +24,23 @@ public class RedisConfig {
         RedisTemplate<String, Object> template = new RedisTemplate<>();
         template.setConnectionFactory(factory);
 
+        RedisSerializer<Object> valueSerializer = new CompactRedisSerializer(List.of(new ProductDtoCodec(), new OrderDtoCodec()));
+
         template.setKeySerializer(new StringRedisSerializer());
-        template.setValueSerializer(RedisSerializer.java());
+        template.setValueSerializer(valueSerializer);
 
         template.setHashKeySerializer(new StringRedisSerializer());
-        template.setHashValueSerializer(RedisSerializer.java());
+        template.setHashValueSerializer(valueSerializer);
 
         return template;
     }
+
+    @Bean
+    @ConditionalOnProperty(name = "app.product-cache.redis.enabled", havingValue = "true", matchIfMissing = true)
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory factory, ProductCache productCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(factory);
+        container.addMessageListener(productCache, new ChannelTopic(ProductCache.INVALIDATION_CHANNEL));
+        return container;
+    }
 }
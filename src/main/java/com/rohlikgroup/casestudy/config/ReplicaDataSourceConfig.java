@@ -0,0 +1,64 @@
+package com.rohlikgroup.casestudy.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Adds a separate connection pool for a read replica. The application then uses a data source that serves
+ * {@code @Transactional(readOnly = true)} methods from the replica and everything else from the primary pool of
+ * {@link HikariConfig}, so catalog reads don't compete with stock updates for primary connections.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.datasource.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Value("${app.datasource.replica.url}")
+    private String dbUrl;
+
+    @Value("${app.datasource.replica.username:${spring.datasource.username}}")
+    private String dbUsername;
+
+    @Value("${app.datasource.replica.password:${spring.datasource.password}}")
+    private String dbPassword;
+
+    @Value("${spring.datasource.driver-class-name}")
+    private String dbDriverClassName;
+
+    //the pool settings (app.datasource.replica.hikari.*) are bound onto the returned data source
+    @Bean
+    @ConfigurationProperties("app.datasource.replica.hikari")
+    public HikariDataSource replicaDataSource() {
+        HikariDataSource dataSource = new HikariDataSource();
+        dataSource.setDriverClassName(dbDriverClassName);
+        dataSource.setJdbcUrl(dbUrl);
+        dataSource.setUsername(dbUsername);
+        dataSource.setPassword(dbPassword);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource routingDataSource(@Qualifier("dataSource") DataSource primaryDataSource,
+                                        @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                                        ReplicaLagGuard replicaLagGuard) {
+        ReadOnlyRoutingDataSource routingDataSource = new ReadOnlyRoutingDataSource(replicaLagGuard);
+        routingDataSource.setTargetDataSources(Map.of(
+                ReadOnlyRoutingDataSource.PRIMARY, primaryDataSource,
+                ReadOnlyRoutingDataSource.REPLICA, replicaDataSource));
+        routingDataSource.setDefaultTargetDataSource(primaryDataSource);
+        routingDataSource.afterPropertiesSet();
+        //the transaction manager asks for the connection before it marks the transaction read-only,
+        //so the connection is only fetched from the routed pool when the first statement runs
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -0,0 +1,88 @@
+package com.rohlikgroup.casestudy.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how far the read replica lags behind the primary and keeps read-only transactions on the primary while the
+ * lag exceeds {@code app.datasource.replica.max-lag} or the replica can't be reached.
+ */
+@Component
+@ConditionalOnProperty(name = "app.datasource.replica.enabled", havingValue = "true")
+@Slf4j
+public class ReplicaLagGuard {
+
+    private static final String PRIMARY_WAL_POSITION_SQL = "SELECT pg_current_wal_lsn()::TEXT";
+
+    //a replica that replayed everything the primary had written is current, even if the primary has not written for a
+    //while, a replica behind it lags by the time since it replayed its last transaction (NULL before the first one)
+    //comparing against the primary rather than the WAL the replica received also catches a stalled or disconnected receiver
+    private static final String REPLICATION_LAG_SQL = """
+            SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_replay_lsn() >= CAST(? AS pg_lsn) THEN 0
+                        ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000
+                   END::BIGINT
+            """;
+
+    private final JdbcTemplate primaryJdbcTemplate;
+    private final JdbcTemplate jdbcTemplate;
+    private final Duration maxLag;
+    private final AtomicLong lagMillis = new AtomicLong(-1);
+
+    private volatile boolean replicaUsable;
+
+    public ReplicaLagGuard(@Qualifier("dataSource") DataSource primaryDataSource,
+                           @Qualifier("replicaDataSource") DataSource replicaDataSource,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.datasource.replica.max-lag:1s}") Duration maxLag) {
+        this.primaryJdbcTemplate = new JdbcTemplate(primaryDataSource);
+        this.jdbcTemplate = new JdbcTemplate(replicaDataSource);
+        this.maxLag = maxLag;
+        Gauge.builder("datasource.replica.lag", lagMillis, lag -> lag.get() < 0 ? Double.NaN : lag.get() / 1000.0)
+                .description("Replication lag of the read replica, not a number while it can't be reached")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @return whether read-only transactions may currently use the replica
+     */
+    public boolean isReplicaUsable() {
+        return replicaUsable;
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.replica.lag-check-interval-ms:1000}")
+    public void checkLag() {
+        Long lag;
+        try {
+            //the primary is read first, so the replica can only have moved further when it is compared
+            String primaryWalPosition = primaryJdbcTemplate.queryForObject(PRIMARY_WAL_POSITION_SQL, String.class);
+            lag = jdbcTemplate.queryForObject(REPLICATION_LAG_SQL, Long.class, primaryWalPosition);
+        } catch (RuntimeException e) {
+            lag = null;
+            if (replicaUsable) {
+                log.warn("Failed to check the replication lag, reading from the primary: {}", e.getMessage());
+            }
+        }
+        update(lag == null ? null : Duration.ofMillis(lag));
+    }
+
+    void update(Duration lag) {
+        lagMillis.set(lag == null ? -1 : lag.toMillis());
+        boolean usable = lag != null && lag.compareTo(maxLag) <= 0;
+        if (usable != replicaUsable && lag != null) {
+            log.info("Replication lag is {} ms, reading from the {}", lag.toMillis(), usable ? "replica" : "primary");
+        }
+        replicaUsable = usable;
+    }
+}
@@ -0,0 +1,62 @@
+package com.rohlikgroup.casestudy.controller;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Caps the requests in flight with the permits of the {@link ConcurrencyLimiter}. Requests that can't get a permit
+ * within {@code app.concurrency.acquire-timeout} are rejected with 503.
+ * <p>
+ * The permit is given back when the handler returns. Asynchronous (streaming) responses take a permit for each batch
+ * they read while writing the response.
+ */
+@Component
+public class ConcurrencyLimitFilter extends OncePerRequestFilter {
+
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final Duration acquireTimeout;
+    private final Counter rejectedCounter;
+
+    public ConcurrencyLimitFilter(ConcurrencyLimiter concurrencyLimiter,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.concurrency.acquire-timeout:500ms}") Duration acquireTimeout) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.acquireTimeout = acquireTimeout;
+        this.rejectedCounter = Counter.builder("http.server.requests.rejected")
+                .description("Requests rejected because the concurrency limit was reached")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return request.getRequestURI().startsWith("/actuator");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
+        if (!concurrencyLimiter.tryAcquire(acquireTimeout)) {
+            rejectedCounter.increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.sendError(HttpStatus.SERVICE_UNAVAILABLE.value(), "Too many concurrent requests");
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            concurrencyLimiter.release();
+        }
+    }
+}
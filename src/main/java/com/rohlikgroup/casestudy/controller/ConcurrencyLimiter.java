@@ -0,0 +1,76 @@
+package com.rohlikgroup.casestudy.controller;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Permits for work that needs a pooled database connection, a multiple of the connection pool size. With virtual
+ * threads nothing else bounds the number of concurrent requests, and without the cap they would all queue inside
+ * Hikari until its connection timeout.
+ * <p>
+ * Requests take a permit in the {@link ConcurrencyLimitFilter}. Streaming responses take one per batch they read
+ * instead, so a slow client doesn't keep a permit while it downloads.
+ */
+@Component
+public class ConcurrencyLimiter {
+
+    private final Semaphore permits;
+    private final int maxPermits;
+
+    public ConcurrencyLimiter(MeterRegistry meterRegistry,
+                              @Value("${spring.datasource.hikari.maximum-pool-size:10}") int poolSize,
+                              @Value("${app.concurrency.permits-per-connection:2}") int permitsPerConnection) {
+        this.maxPermits = poolSize * permitsPerConnection;
+        this.permits = new Semaphore(maxPermits, true);
+        Gauge.builder("http.server.requests.in-flight", permits, p -> maxPermits - p.availablePermits())
+                .description("Requests holding a concurrency permit")
+                .register(meterRegistry);
+        Gauge.builder("http.server.requests.waiting", permits, Semaphore::getQueueLength)
+                .description("Requests waiting for a concurrency permit")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @param timeout how long to wait for a permit
+     * @return whether a permit was acquired, it must then be given back with {@link #release()}
+     */
+    public boolean tryAcquire(Duration timeout) {
+        try {
+            return permits.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    /**
+     * Runs the action holding a permit, waiting for one as long as it takes.
+     *
+     * @param action the action to run
+     * @return the result of the action
+     */
+    public <T> T callWithPermit(Supplier<T> action) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a concurrency permit", e);
+        }
+        try {
+            return action.get();
+        } finally {
+            permits.release();
+        }
+    }
+}
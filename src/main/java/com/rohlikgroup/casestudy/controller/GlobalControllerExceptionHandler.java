@@ -1,17 +1,28 @@
 package com.rohlikgroup.casestudy.controller;
 
+import com.rohlikgroup.casestudy.exception.IdempotencyKeyReusedException;
+import com.rohlikgroup.casestudy.exception.InsufficientStockException;
+import com.rohlikgroup.casestudy.exception.RequestInProgressException;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ConstraintViolationException;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
 @ControllerAdvice
+@RequiredArgsConstructor
 @Slf4j
 public class GlobalControllerExceptionHandler {
 
+    private final MeterRegistry meterRegistry;
+
     @ExceptionHandler(EntityNotFoundException.class)
     public ResponseEntity<String> handleEntityNotFound(EntityNotFoundException ex) {
         return ResponseEntity.status(HttpStatus.NOT_FOUND).body(ex.getMessage());
@@ -22,6 +33,40 @@ public class GlobalControllerExceptionHandler {
         return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(ex.getMessage());
     }
 
+    @ExceptionHandler(InsufficientStockException.class)
+    public ResponseEntity<String> handleInsufficientStock(InsufficientStockException ex) {
+        meterRegistry.counter("orders.rejections", "reason", "insufficient_stock").increment();
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(IdempotencyKeyReusedException.class)
+    public ResponseEntity<String> handleIdempotencyKeyReused(IdempotencyKeyReusedException ex) {
+        return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(ex.getMessage());
+    }
+
+    @ExceptionHandler(RequestInProgressException.class)
+    public ResponseEntity<String> handleRequestInProgress(RequestInProgressException ex) {
+        //Retry-After is in whole seconds
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.CONFLICT)
+                .header(HttpHeaders.RETRY_AFTER, Long.toString(retryAfterSeconds))
+                .body(ex.getMessage());
+    }
+
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<String> handleOptimisticLockingFailure(OptimisticLockingFailureException ex) {
+        //the entity was changed by a concurrent request, the client may retry against the current state
+        meterRegistry.counter("optimistic.lock.failures").increment();
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("The resource was modified concurrently, please retry");
+    }
+
+    @ExceptionHandler(PessimisticLockingFailureException.class)
+    public ResponseEntity<String> handlePessimisticLockingFailure(PessimisticLockingFailureException ex) {
+        //a lock timeout or deadlock that was still there after the retries (see RetryOnConflict)
+        meterRegistry.counter("pessimistic.lock.failures").increment();
+        return ResponseEntity.status(HttpStatus.CONFLICT).body("The resource is locked by a concurrent request, please retry");
+    }
+
     @ExceptionHandler(IllegalStateException.class)
     public ResponseEntity<String> handleIllegalState(IllegalStateException ex) {
         return ResponseEntity.status(HttpStatus.CONFLICT).body(ex.getMessage());
@@ -0,0 +1,63 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.function.BiFunction;
+
+/**
+ * Writes newline delimited JSON responses of whole listings, read in keyset batches of
+ * {@code app.streaming.fetch-size} rows.
+ * <p>
+ * Every batch is read in its own short transaction holding a {@link ConcurrencyLimiter} permit, and written to the
+ * client only after its connection was returned to the pool, so a slow client holds neither a connection nor a
+ * permit while it downloads.
+ */
+@Component
+class NdjsonResponses {
+
+    private final ObjectMapper objectMapper;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final int batchSize;
+
+    NdjsonResponses(ObjectMapper objectMapper,
+                    ConcurrencyLimiter concurrencyLimiter,
+                    @Value("${app.streaming.fetch-size:500}") int batchSize) {
+        this.objectMapper = objectMapper;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param batchLoader reads the batch after the given ID, {@code null} for the first batch, with the given size
+     */
+    <T> ResponseEntity<StreamingResponseBody> stream(BiFunction<Long, Integer, KeysetPage<T>> batchLoader) {
+        StreamingResponseBody body = outputStream -> {
+            //one generator for the whole response reuses its buffers instead of allocating a byte array per row
+            try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+                generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+                Long afterId = null;
+                do {
+                    Long cursor = afterId;
+                    KeysetPage<T> batch = concurrencyLimiter.callWithPermit(() -> batchLoader.apply(cursor, batchSize));
+                    for (T row : batch.items()) {
+                        generator.writeObject(row);
+                        generator.writeRaw('\n');
+                    }
+                    generator.flush();
+                    afterId = batch.nextCursor();
+                } while (afterId != null);
+            }
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+}
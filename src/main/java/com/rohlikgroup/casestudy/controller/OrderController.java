@@ -1,12 +1,22 @@
 package com.rohlikgroup.casestudy.controller;
 
 import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult;
+import com.rohlikgroup.casestudy.dto.CreateOrdersRequest;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
 import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
 import com.rohlikgroup.casestudy.service.OrderService;
+import com.rohlikgroup.casestudy.service.idempotency.IdempotencyGuard;
+import com.rohlikgroup.casestudy.service.payment.PaymentCoalescer;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -15,7 +25,15 @@ import java.util.List;
 @RequiredArgsConstructor
 public class OrderController {
 
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final OrderService orderService;
+    private final IdempotencyGuard idempotencyGuard;
+    private final PaymentCoalescer paymentCoalescer;
+    private final NdjsonResponses ndjsonResponses;
+
+    @Value("${app.json.direct-writer.orders-list:true}")
+    private boolean directJsonOrdersList;
 
     @PostMapping("/{id}/cancel")
     public ResponseEntity<OrderDto> cancelOrder(@PathVariable Long id) {
@@ -25,20 +43,54 @@ public class OrderController {
 
     @PostMapping("/{id}/pay")
     public ResponseEntity<OrderDto> payOrder(@PathVariable Long id) {
-        var paidOrder = orderService.setOrderPaid(id);
+        //confirmations arriving together are paid in one batch
+        var paidOrder = paymentCoalescer.pay(id);
         return ResponseEntity.ok(paidOrder);
     }
 
+    @PostMapping("/pay")
+    public List<PayOrderResult> payOrders(@RequestBody PayOrdersRequest payOrdersRequest) {
+        return orderService.setOrdersPaid(payOrdersRequest);
+    }
+
     @PostMapping
     @ResponseStatus(HttpStatus.CREATED)
-    public OrderDto createOrder(@RequestBody CreateOrderRequest createOrderRequest) {
-        return orderService.createOrder(createOrderRequest);
+    public OrderDto createOrder(@RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+                                @RequestBody CreateOrderRequest createOrderRequest) {
+        if (idempotencyKey == null) {
+            return orderService.createOrder(createOrderRequest);
+        }
+        //retries of the same request get the order created by the first one
+        return idempotencyGuard.execute("orders", idempotencyKey, createOrderRequest, OrderDto.class, () -> orderService.createOrder(createOrderRequest));
+    }
+
+    @PostMapping("/batch")
+    public List<CreateOrderResult> createOrders(@RequestBody CreateOrdersRequest createOrdersRequest) {
+        return orderService.createOrders(createOrdersRequest);
     }
 
     @GetMapping
-    public ResponseEntity<List<OrderDto>> listOrders() {
-        var orders = orderService.getOrders();
-        return ResponseEntity.ok(orders);
+    public ResponseEntity<?> listOrders(@RequestParam(required = false) Long after,
+                                        @RequestParam(defaultValue = "${app.pagination.default-page-size:100}") int limit) {
+        if (directJsonOrdersList) {
+            var page = orderService.getOrderRows(after, limit);
+            return withNextCursor(page).body(new OrderRowsJson(page.items()));
+        }
+        var page = orderService.getOrders(after, limit);
+        return withNextCursor(page).body(page.items());
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamOrders() {
+        return ndjsonResponses.stream(orderService::getOrders);
     }
 
+    private static ResponseEntity.BodyBuilder withNextCursor(KeysetPage<?> page) {
+        return ResponseEntity.ok()
+                .headers(headers -> {
+                    if (page.nextCursor() != null) {
+                        headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.nextCursor().toString());
+                    }
+                });
+    }
 }
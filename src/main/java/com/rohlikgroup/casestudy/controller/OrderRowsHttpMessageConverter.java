@@ -0,0 +1,46 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.rohlikgroup.casestudy.mapper.OrderJsonWriter;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+
+/**
+ * Writes {@link OrderRowsJson} bodies with {@link OrderJsonWriter}. Spring Boot registers converter beans ahead of
+ * the Jackson one, and the response is written synchronously like any other body.
+ */
+@Component
+class OrderRowsHttpMessageConverter extends AbstractHttpMessageConverter<OrderRowsJson> {
+
+    private final OrderJsonWriter orderJsonWriter;
+
+    OrderRowsHttpMessageConverter(OrderJsonWriter orderJsonWriter) {
+        super(MediaType.APPLICATION_JSON);
+        this.orderJsonWriter = orderJsonWriter;
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return OrderRowsJson.class == clazz;
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected OrderRowsJson readInternal(Class<? extends OrderRowsJson> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("Orders are written only", inputMessage);
+    }
+
+    @Override
+    protected void writeInternal(OrderRowsJson body, HttpOutputMessage outputMessage) throws IOException {
+        orderJsonWriter.writeOrders(outputMessage.getBody(), body.rows());
+    }
+}
@@ -0,0 +1,13 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+
+import java.util.List;
+
+/**
+ * A response body of orders that {@link OrderRowsHttpMessageConverter} writes straight from their rows.
+ *
+ * @param rows the rows of the orders, ordered by order ID
+ */
+record OrderRowsJson(List<OrderItemRow> rows) {
+}
@@ -1,11 +1,15 @@
 package com.rohlikgroup.casestudy.controller;
 
+import com.rohlikgroup.casestudy.dto.KeysetPage;
 import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.dto.ProductStatsDto;
 import com.rohlikgroup.casestudy.service.ProductService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.util.List;
 
@@ -15,6 +19,7 @@ import java.util.List;
 public class ProductController {
 
     private final ProductService productService;
+    private final NdjsonResponses ndjsonResponses;
 
 
     @PostMapping
@@ -38,9 +43,21 @@ public class ProductController {
     }
 
     @GetMapping
-    public ResponseEntity<List<ProductDto>> listProducts() {
-        var products = productService.getProducts();
-        return ResponseEntity.ok(products);
+    public ResponseEntity<List<ProductDto>> listProducts(@RequestParam(required = false) Long after,
+                                                         @RequestParam(defaultValue = "${app.pagination.default-page-size:100}") int limit) {
+        var page = productService.getProducts(after, limit);
+        return ResponseEntity.ok()
+                .headers(headers -> {
+                    if (page.nextCursor() != null) {
+                        headers.set(KeysetPage.NEXT_CURSOR_HEADER, page.nextCursor().toString());
+                    }
+                })
+                .body(page.items());
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamProducts() {
+        return ndjsonResponses.stream(productService::getProductBatch);
     }
 
     @GetMapping("/{id}")
@@ -48,4 +65,9 @@ public class ProductController {
         var products = productService.getProduct(id);
         return ResponseEntity.ok(products);
     }
+
+    @GetMapping("/{id}/stats")
+    public ResponseEntity<ProductStatsDto> getProductStats(@PathVariable Long id) {
+        return ResponseEntity.ok(productService.getProductStats(id));
+    }
 }
@@ -0,0 +1,28 @@
+package com.rohlikgroup.casestudy.dto;
+
+/**
+ * The outcome of one order of a {@link CreateOrdersRequest}.
+ *
+ * @param outcome whether the order was created and why not
+ * @param order   the created order, {@code null} when it was not created
+ * @param error   the reason the order was not created, {@code null} when it was
+ */
+public record CreateOrderResult(Outcome outcome,
+                                OrderDto order,
+                                String error) {
+
+    public static CreateOrderResult created(OrderDto order) {
+        return new CreateOrderResult(Outcome.CREATED, order, null);
+    }
+
+    public static CreateOrderResult failed(Outcome outcome, String error) {
+        return new CreateOrderResult(outcome, null, error);
+    }
+
+    public enum Outcome {
+        CREATED,
+        INVALID,
+        PRODUCT_NOT_FOUND,
+        INSUFFICIENT_STOCK
+    }
+}
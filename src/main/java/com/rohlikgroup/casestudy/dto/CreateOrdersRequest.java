@@ -0,0 +1,16 @@
+package com.rohlikgroup.casestudy.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Orders created together in one transaction. The orders are deliberately not cascade-validated, an invalid order
+ * only fails itself and is reported in its {@link CreateOrderResult}.
+ */
+public record CreateOrdersRequest(@NotNull
+                                  @Size(min = 1)
+                                  List<CreateOrderRequest> orders) {
+
+}
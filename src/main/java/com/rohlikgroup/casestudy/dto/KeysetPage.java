@@ -0,0 +1,28 @@
+package com.rohlikgroup.casestudy.dto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A page of a keyset (cursor) paginated listing ordered by ID.
+ *
+ * @param items      the items of the page
+ * @param nextCursor the ID to continue after, {@code null} when this is the last page
+ */
+public record KeysetPage<T>(List<T> items,
+                            Long nextCursor) {
+
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    /**
+     * Creates a page from items fetched with a limit of {@code pageSize + 1}, the extra item only signals that
+     * another page exists.
+     */
+    public static <T> KeysetPage<T> of(List<T> items, int pageSize, Function<T, Long> idExtractor) {
+        if (items.size() <= pageSize) {
+            return new KeysetPage<>(items, null);
+        }
+        List<T> page = items.subList(0, pageSize);
+        return new KeysetPage<>(page, idExtractor.apply(page.get(pageSize - 1)));
+    }
+}
@@ -4,6 +4,7 @@ import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 
+import java.io.Serializable;
 import java.time.LocalDateTime;
 import java.util.List;
 
@@ -12,6 +13,6 @@ public record OrderDto(Long id,
                        String status,
                        @Size(min = 1)
                        List<@Valid OrderItemDto> orderItems,
-                       LocalDateTime paidAt) {
+                       LocalDateTime paidAt) implements Serializable {
 
 }
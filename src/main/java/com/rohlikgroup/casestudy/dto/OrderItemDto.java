@@ -3,13 +3,15 @@ package com.rohlikgroup.casestudy.dto;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 
+import java.io.Serializable;
+
 public record OrderItemDto(
         Long id,
         @NotNull
         ProductDto product,
         @NotNull
         @Min(1)
-        Integer quantity) {
+        Integer quantity) implements Serializable {
 
 }
 
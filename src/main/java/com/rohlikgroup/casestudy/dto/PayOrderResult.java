@@ -0,0 +1,29 @@
+package com.rohlikgroup.casestudy.dto;
+
+/**
+ * The outcome of one order of a {@link PayOrdersRequest}.
+ *
+ * @param orderId the ID of the order
+ * @param outcome whether the order was paid and why not
+ * @param order   the paid order, {@code null} when it was not paid
+ * @param error   the reason the order was not paid, {@code null} when it was
+ */
+public record PayOrderResult(Long orderId,
+                             Outcome outcome,
+                             OrderDto order,
+                             String error) {
+
+    public static PayOrderResult paid(OrderDto order) {
+        return new PayOrderResult(order.id(), Outcome.PAID, order, null);
+    }
+
+    public static PayOrderResult failed(Long orderId, Outcome outcome, String error) {
+        return new PayOrderResult(orderId, outcome, null, error);
+    }
+
+    public enum Outcome {
+        PAID,
+        NOT_PENDING,
+        NOT_FOUND
+    }
+}
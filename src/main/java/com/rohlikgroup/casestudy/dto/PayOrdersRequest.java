@@ -0,0 +1,15 @@
+package com.rohlikgroup.casestudy.dto;
+
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+/**
+ * Payment confirmations of many orders applied together in one transaction.
+ */
+public record PayOrdersRequest(@NotNull
+                               @Size(min = 1)
+                               List<@NotNull Long> orderIds) {
+
+}
@@ -6,6 +6,7 @@ import jakarta.validation.constraints.NotNull;
 import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.Size;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 
 public record ProductDto(Long id,
@@ -17,6 +18,6 @@ public record ProductDto(Long id,
                          Integer stockAmount,
                          @NotNull
                          @Positive
-                         BigDecimal price) {
+                         BigDecimal price) implements Serializable {
 
 }
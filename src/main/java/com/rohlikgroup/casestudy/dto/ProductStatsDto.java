@@ -0,0 +1,13 @@
+package com.rohlikgroup.casestudy.dto;
+
+/**
+ * Aggregates of the orders of a product.
+ *
+ * @param productId        the ID of the product
+ * @param reservedQuantity the quantity reserved by pending orders
+ * @param soldQuantity     the quantity sold by paid orders
+ * @param activeOrders     the number of pending and paid orders of the product
+ */
+public record ProductStatsDto(Long productId, long reservedQuantity, long soldQuantity, int activeOrders) {
+
+}
@@ -0,0 +1,8 @@
+package com.rohlikgroup.casestudy.exception;
+
+public class IdempotencyKeyReusedException extends RuntimeException {
+
+    public IdempotencyKeyReusedException() {
+        super("The idempotency key was already used for a different request");
+    }
+}
@@ -1,8 +1,22 @@
 package com.rohlikgroup.casestudy.exception;
 
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+
+@Getter
 public class InsufficientStockException extends IllegalStateException {
 
+    private final List<Long> productIds;
+
     public InsufficientStockException(String message) {
         super(message);
+        this.productIds = List.of();
+    }
+
+    public InsufficientStockException(Collection<Long> productIds) {
+        super("Insufficient stock for products with ids: " + productIds);
+        this.productIds = List.copyOf(productIds);
     }
 }
@@ -0,0 +1,16 @@
+package com.rohlikgroup.casestudy.exception;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+@Getter
+public class RequestInProgressException extends IllegalStateException {
+
+    private final Duration retryAfter;
+
+    public RequestInProgressException(Duration retryAfter) {
+        super("A request with the same idempotency key is still in progress");
+        this.retryAfter = retryAfter;
+    }
+}
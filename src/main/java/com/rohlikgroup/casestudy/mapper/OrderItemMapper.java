@@ -5,7 +5,7 @@ import com.rohlikgroup.casestudy.entity.OrderItem;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 
-@Mapper(componentModel = "spring")
+@Mapper(componentModel = "spring", uses = {ProductMapper.class})
 public interface OrderItemMapper {
 
     @Mapping(target = "order", ignore = true)
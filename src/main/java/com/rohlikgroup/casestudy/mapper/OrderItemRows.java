@@ -0,0 +1,54 @@
+package com.rohlikgroup.casestudy.mapper;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembles the flat {@link OrderItemRow}s of orders back into orders. The rows must be ordered by order ID, so every
+ * order is assembled in a single pass once its last row is read.
+ */
+public final class OrderItemRows {
+
+    private OrderItemRows() {
+    }
+
+    public static List<OrderDto> toOrders(List<OrderItemRow> rows) {
+        List<OrderDto> orders = new ArrayList<>();
+        int start = 0;
+        while (start < rows.size()) {
+            int end = orderEnd(rows, start);
+            OrderItemRow first = rows.get(start);
+            List<OrderItemDto> items = new ArrayList<>(end - start);
+            for (int i = start; i < end; i++) {
+                OrderItemRow row = rows.get(i);
+                if (row.itemId() != null) {
+                    items.add(new OrderItemDto(row.itemId(), product(row), row.quantity()));
+                }
+            }
+            orders.add(new OrderDto(first.orderId(), first.status().name(), items, first.paidAt()));
+            start = end;
+        }
+        return orders;
+    }
+
+    /**
+     * @return the index after the last row of the order that starts at {@code start}
+     */
+    static int orderEnd(List<OrderItemRow> rows, int start) {
+        Long orderId = rows.get(start).orderId();
+        int end = start + 1;
+        while (end < rows.size() && orderId.equals(rows.get(end).orderId())) {
+            end++;
+        }
+        return end;
+    }
+
+    private static ProductDto product(OrderItemRow row) {
+        return row.productId() == null ? null : new ProductDto(row.productId(), row.productName(), row.stockAmount(), row.price());
+    }
+}
@@ -0,0 +1,117 @@
+package com.rohlikgroup.casestudy.mapper;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Writes orders as JSON straight from their {@link OrderItemRow}s, skipping the DTO graph that would only be
+ * serialized and thrown away.
+ * <p>
+ * The output is exactly what serializing {@link com.rohlikgroup.casestudy.dto.OrderDto} produces, the fields are
+ * written in the order of the record components. The rows must be ordered by order ID.
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderJsonWriter {
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Writes the orders of the rows as a JSON array. The output stream is flushed but left open.
+     */
+    public void writeOrders(OutputStream outputStream, List<OrderItemRow> rows) throws IOException {
+        //the generator takes its buffers from Jackson's recycler pool, so a response allocates little besides the rows
+        try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            //dates go through the serializer of the object mapper to keep its configured format, looked up once per response
+            SerializerProvider serializerProvider = objectMapper.getSerializerProviderInstance();
+            JsonSerializer<Object> dateSerializer = serializerProvider.findValueSerializer(LocalDateTime.class);
+            generator.writeStartArray();
+            int start = 0;
+            while (start < rows.size()) {
+                int end = OrderItemRows.orderEnd(rows, start);
+                writeOrder(generator, rows, start, end, dateSerializer, serializerProvider);
+                start = end;
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private void writeOrder(JsonGenerator generator, List<OrderItemRow> rows, int start, int end,
+                            JsonSerializer<Object> dateSerializer, SerializerProvider serializerProvider) throws IOException {
+        OrderItemRow order = rows.get(start);
+        generator.writeStartObject();
+        writeNumberField(generator, "id", order.orderId());
+        generator.writeStringField("status", order.status().name());
+        generator.writeArrayFieldStart("orderItems");
+        for (int i = start; i < end; i++) {
+            if (rows.get(i).itemId() != null) {
+                writeOrderItem(generator, rows.get(i));
+            }
+        }
+        generator.writeEndArray();
+        generator.writeFieldName("paidAt");
+        if (order.paidAt() == null) {
+            generator.writeNull();
+        } else {
+            dateSerializer.serialize(order.paidAt(), generator, serializerProvider);
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeOrderItem(JsonGenerator generator, OrderItemRow row) throws IOException {
+        generator.writeStartObject();
+        writeNumberField(generator, "id", row.itemId());
+        generator.writeFieldName("product");
+        if (row.productId() == null) {
+            generator.writeNull();
+        } else {
+            writeProduct(generator, row);
+        }
+        generator.writeFieldName("quantity");
+        if (row.quantity() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(row.quantity());
+        }
+        generator.writeEndObject();
+    }
+
+    private void writeProduct(JsonGenerator generator, OrderItemRow row) throws IOException {
+        generator.writeStartObject();
+        writeNumberField(generator, "id", row.productId());
+        generator.writeStringField("name", row.productName());
+        generator.writeFieldName("stockAmount");
+        if (row.stockAmount() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(row.stockAmount());
+        }
+        generator.writeFieldName("price");
+        if (row.price() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(row.price());
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeNumberField(JsonGenerator generator, String name, Long value) throws IOException {
+        generator.writeFieldName(name);
+        if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value);
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.rohlikgroup.casestudy.mapper;
 import com.rohlikgroup.casestudy.dto.ProductDto;
 import com.rohlikgroup.casestudy.entity.Product;
 import org.mapstruct.Mapper;
+import org.mapstruct.Mapping;
 
 @Mapper(componentModel = "spring")
 public interface ProductMapper {
@@ -10,4 +11,7 @@ public interface ProductMapper {
     Product map(ProductDto productDto);
 
     ProductDto map(Product product);
+
+    @Mapping(target = "stockAmount", source = "stockAmount")
+    ProductDto map(Product product, Integer stockAmount);
 }
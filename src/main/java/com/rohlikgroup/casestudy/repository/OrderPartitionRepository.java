@@ -0,0 +1,103 @@
+package com.rohlikgroup.casestudy.repository;
+
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+/**
+ * Manages the monthly partitions of {@code orders} and {@code order_items} when they are partitioned by
+ * {@code created_at}. The partition of a month is named by the table and the month, e.g. {@code orders_p202610}.
+ * The statements run outside of transactions, as partitions are detached concurrently.
+ */
+@Repository
+@Timed(value = "jdbc.repository.invocations", histogram = true)
+@RequiredArgsConstructor
+public class OrderPartitionRepository {
+
+    public static final String ORDERS = "orders";
+    public static final String ORDER_ITEMS = "order_items";
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final String CREATE_PARTITIONS_SQL = "SELECT create_order_partitions(?, ?)";
+
+    private static final String PARTITIONS_SQL = """
+            SELECT c.relname
+            FROM pg_inherits i
+            JOIN pg_class c ON c.oid = i.inhrelid
+            WHERE i.inhparent = CAST(? AS regclass)
+              AND c.relname ~ '_p[0-9]{6}$'
+              AND right(c.relname, 6) < ?
+            ORDER BY c.relname
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Creates the partitions of both tables for every month from {@code from} to {@code to} that does not exist yet.
+     *
+     * @return the number of partitions created
+     */
+    public int createPartitions(LocalDate from, LocalDate to) {
+        Integer created = jdbcTemplate.queryForObject(CREATE_PARTITIONS_SQL, Integer.class, from, to);
+        return created == null ? 0 : created;
+    }
+
+    /**
+     * @return the names of the attached partitions of the table for months before the month of {@code before}
+     */
+    public List<String> findPartitionsBefore(String table, LocalDate before) {
+        return jdbcTemplate.queryForList(PARTITIONS_SQL, String.class, table, before.format(PARTITION_SUFFIX));
+    }
+
+    /**
+     * Detaches the partition without blocking reads and writes of the table, it stays in place as a standalone table.
+     */
+    public void detachPartition(String table, String partition) {
+        //the names come from the catalog, quoted as identifiers all the same
+        jdbcTemplate.execute("ALTER TABLE " + quote(table) + " DETACH PARTITION " + quote(partition) + " CONCURRENTLY");
+    }
+
+    /**
+     * Runs the action while holding a session-level Postgres advisory lock, or not at all when another session holds it.
+     *
+     * @return whether the lock was acquired and the action ran
+     */
+    public boolean runWithAdvisoryLock(long key, Runnable action) {
+        Boolean acquired = jdbcTemplate.execute((ConnectionCallback<Boolean>) connection -> {
+            if (!queryBoolean(connection, "SELECT pg_try_advisory_lock(?)", key)) {
+                return false;
+            }
+            try {
+                action.run();
+                return true;
+            } finally {
+                queryBoolean(connection, "SELECT pg_advisory_unlock(?)", key);
+            }
+        });
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    private static boolean queryBoolean(Connection connection, String sql, long key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setLong(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private static String quote(String identifier) {
+        return '"' + identifier.replace("\"", "\"\"") + '"';
+    }
+}
@@ -2,21 +2,121 @@ package com.rohlikgroup.casestudy.repository;
 
 import com.rohlikgroup.casestudy.entity.Order;
 import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.repository.projection.ExpirableOrder;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
-import java.util.Set;
+import java.util.Optional;
 
 @Repository
 public interface OrderRepository extends JpaRepository<Order, Long> {
 
-    boolean existsByOrderItemsProductIdAndStatusNotIn(Long productId, Set<OrderStatus> statuses);
+    @EntityGraph(Order.WITH_ITEMS_AND_PRODUCTS)
+    Optional<Order> findWithItemsById(Long id);
 
-    @Query("SELECT o FROM Order o WHERE o.status = :status AND o.createdAt < :timestamp")
-    List<Order> findAllByStatusAndCreatedAtBefore(@Param("status") OrderStatus status, @Param("timestamp") LocalDateTime timestamp);
+    @Query("SELECT o.id FROM Order o WHERE o.id > :afterId ORDER BY o.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Limit limit);
+
+    /**
+     * Reads the given orders with their items and products as flat rows, so no managed entities or dirty checking
+     * snapshots are created.
+     *
+     * @param ids the IDs of the orders
+     * @return one row per order item, ordered by order and item ID
+     */
+    @Query("""
+            SELECT new com.rohlikgroup.casestudy.repository.projection.OrderItemRow(
+                   o.id, o.status, o.paidAt, oi.id, oi.quantity,
+                   p.id, p.name, p.stockAmount, p.price)
+            FROM Order o
+            LEFT JOIN o.orderItems oi
+            LEFT JOIN oi.product p
+            WHERE o.id IN :ids
+            ORDER BY o.id, oi.id
+            """)
+    List<OrderItemRow> findItemRowsByOrderIdIn(@Param("ids") Collection<Long> ids);
+
+    /**
+     * Tries to take a transaction-scoped Postgres advisory lock, released automatically on commit or rollback.
+     *
+     * @param key the lock key
+     * @return whether the lock was acquired
+     */
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+    boolean tryAdvisoryTransactionLock(@Param("key") long key);
+
+    /**
+     * Locks a chunk of the oldest pending orders created before the given timestamp. Orders locked by another
+     * transaction (a cancellation or payment in progress) are skipped instead of waited for.
+     *
+     * @param timestamp the creation deadline
+     * @param limit     the maximum number of orders to lock
+     * @return the locked orders, oldest first
+     */
+    @Query(value = """
+            SELECT id, created_at AS "createdAt"
+            FROM orders
+            WHERE order_status = 'PENDING'
+              AND created_at < :timestamp
+            ORDER BY created_at
+            LIMIT :limit
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<ExpirableOrder> lockPendingOrdersCreatedBefore(@Param("timestamp") LocalDateTime timestamp, @Param("limit") int limit);
+
+    /**
+     * Locks those of the given orders that are still pending and were created before the given timestamp, skipping
+     * orders locked by another transaction.
+     *
+     * @param orderIds  the IDs of the candidate orders
+     * @param timestamp the creation deadline
+     * @return the IDs of the locked orders
+     */
+    @Query(value = """
+            SELECT id
+            FROM orders
+            WHERE id = ANY(CAST(:orderIds AS BIGINT[]))
+              AND order_status = 'PENDING'
+              AND created_at < :timestamp
+            FOR UPDATE SKIP LOCKED
+            """, nativeQuery = true)
+    List<Long> lockPendingOrderIdsCreatedBefore(@Param("orderIds") Long[] orderIds, @Param("timestamp") LocalDateTime timestamp);
+
+    /**
+     * Marks those of the given orders that are still pending as paid in a single statement, without loading them.
+     *
+     * @param orderIds the IDs of the orders to pay
+     * @param paidAt   the payment timestamp
+     * @return the IDs of the orders that were paid
+     */
+    @Query(value = """
+            UPDATE orders
+            SET order_status = 'PAID', paid_at = :paidAt, version = version + 1
+            WHERE id = ANY(CAST(:orderIds AS BIGINT[]))
+              AND order_status = 'PENDING'
+            RETURNING id
+            """, nativeQuery = true)
+    List<Long> payPendingOrders(@Param("orderIds") Long[] orderIds, @Param("paidAt") LocalDateTime paidAt);
+
+    @Query(value = "SELECT id FROM orders WHERE id = ANY(CAST(:orderIds AS BIGINT[]))", nativeQuery = true)
+    List<Long> findExistingIds(@Param("orderIds") Long[] orderIds);
+
+    @Query(value = "SELECT id FROM orders WHERE id = ANY(CAST(:orderIds AS BIGINT[])) AND order_status = 'PENDING'", nativeQuery = true)
+    List<Long> findPendingIds(@Param("orderIds") Long[] orderIds);
+
+    long countByStatusAndCreatedAtBefore(OrderStatus status, LocalDateTime createdAt);
+
+    @Modifying
+    @Query("UPDATE Order o SET o.status = :status, o.version = o.version + 1 WHERE o.id IN :orderIds")
+    int updateStatus(@Param("orderIds") Collection<Long> orderIds, @Param("status") OrderStatus status);
 
 }
@@ -0,0 +1,81 @@
+package com.rohlikgroup.casestudy.repository;
+
+import com.rohlikgroup.casestudy.service.outbox.OutboxEvent;
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Access to {@code outbox_events}, the change events waiting to be published by the outbox relay.
+ * All methods must run inside the caller's transaction.
+ */
+@Repository
+@Timed(value = "jdbc.repository.invocations", histogram = true)
+@RequiredArgsConstructor
+public class OutboxRepository {
+
+    //every aggregate is locked before its events get their ids, so a later transaction changing the same aggregate
+    //gets higher ids only after this one commits. Aggregates are locked in a fixed order to rule out deadlocks.
+    private static final String APPEND_SQL = """
+            INSERT INTO outbox_events (aggregate_type, aggregate_id, event_type, payload)
+            SELECT e.aggregate_type, e.aggregate_id, e.event_type, CAST(e.payload AS JSONB)
+            FROM unnest(CAST(? AS VARCHAR[]), CAST(? AS BIGINT[]), CAST(? AS VARCHAR[]), CAST(? AS TEXT[]))
+                     WITH ORDINALITY AS e(aggregate_type, aggregate_id, event_type, payload, n)
+            CROSS JOIN LATERAL (SELECT pg_advisory_xact_lock(hashtextextended(e.aggregate_type || ':' || e.aggregate_id, 0))) l
+            ORDER BY e.aggregate_type, e.aggregate_id, e.n
+            """;
+
+    private static final String NEXT_BATCH_SQL = """
+            SELECT id, aggregate_type, aggregate_id, event_type, CAST(payload AS TEXT) AS payload, created_at
+            FROM outbox_events
+            ORDER BY id
+            LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Appends events in the current transaction, the events of one aggregate keep their order.
+     *
+     * @param aggregateTypes the types of the changed aggregates, aligned with the other arrays
+     * @param aggregateIds   the IDs of the changed aggregates
+     * @param eventTypes     the types of the events
+     * @param payloads       the JSON payloads of the events
+     */
+    public void append(String[] aggregateTypes, Long[] aggregateIds, String[] eventTypes, String[] payloads) {
+        jdbcTemplate.update(APPEND_SQL, aggregateTypes, aggregateIds, eventTypes, payloads);
+    }
+
+    /**
+     * Tries to acquire a transaction-level advisory lock.
+     *
+     * @param key the key of the lock
+     * @return whether the lock was acquired
+     */
+    public boolean tryAdvisoryTransactionLock(long key) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT pg_try_advisory_xact_lock(?)", Boolean.class, key));
+    }
+
+    /**
+     * Returns the oldest events.
+     *
+     * @param limit the maximum number of events
+     * @return the events ordered by ID
+     */
+    public List<OutboxEvent> findNextBatch(int limit) {
+        return jdbcTemplate.query(NEXT_BATCH_SQL, (rs, rowNum) -> new OutboxEvent(
+                rs.getLong("id"),
+                rs.getString("aggregate_type"),
+                rs.getLong("aggregate_id"),
+                rs.getString("event_type"),
+                rs.getString("payload"),
+                rs.getTimestamp("created_at").toLocalDateTime()), limit);
+    }
+
+    public void delete(Long[] ids) {
+        jdbcTemplate.update("DELETE FROM outbox_events WHERE id = ANY(CAST(? AS BIGINT[]))", (Object) ids);
+    }
+}
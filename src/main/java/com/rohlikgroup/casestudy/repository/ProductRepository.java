@@ -1,17 +1,104 @@
 package com.rohlikgroup.casestudy.repository;
 
+import com.rohlikgroup.casestudy.dto.ProductDto;
 import com.rohlikgroup.casestudy.entity.Product;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ProductRepository extends JpaRepository<Product, Long> {
 
+    //the stock of the product row only, see AvailableStock for the stock the ledger holds elsewhere
+    String PRODUCT_DTO = "new com.rohlikgroup.casestudy.dto.ProductDto(p.id, p.name, p.stockAmount, p.price)";
+
+    /**
+     * Reads a page of products straight into DTOs, so no managed entities or dirty checking snapshots are created.
+     *
+     * @param afterId the ID to continue after
+     * @param limit   the maximum number of products
+     * @return the products ordered by ID
+     */
+    @Transactional(readOnly = true)
+    @Query("SELECT " + PRODUCT_DTO + " FROM Product p WHERE p.id > :afterId ORDER BY p.id")
+    List<ProductDto> findDtosAfter(@Param("afterId") Long afterId, Limit limit);
+
+    /**
+     * Reads a product straight into a DTO, so no managed entity or dirty checking snapshot is created.
+     *
+     * @param id the ID of the product
+     * @return the product, empty when it doesn't exist
+     */
+    @Transactional(readOnly = true)
+    @Query("SELECT " + PRODUCT_DTO + " FROM Product p WHERE p.id = :id")
+    Optional<ProductDto> findDtoById(@Param("id") Long id);
+
     @Modifying
     @Query("UPDATE Product p SET p.stockAmount = p.stockAmount + :quantity WHERE p.id = :productId")
     void updateStockAmount(@Param("productId") Long productId, @Param("quantity") Integer quantity);
 
+    @Modifying
+    @Query("UPDATE Product p SET p.stockAmount = :stockAmount WHERE p.id = :productId")
+    void setStockAmount(@Param("productId") Long productId, @Param("stockAmount") Integer stockAmount);
+
+    /**
+     * Decrements the stock of all given products in a single statement. A product is only decremented when it has
+     * enough stock for the requested quantity, so the products missing from the result ran out of stock (or do not exist).
+     *
+     * @param productIds the IDs of the products to reserve, aligned with {@code quantities}
+     * @param quantities the quantities to reserve
+     * @return the IDs of the products whose stock was reserved
+     */
+    @Query(value = """
+            UPDATE products p
+            SET stock_amount = p.stock_amount - r.quantity
+            FROM unnest(CAST(:productIds AS BIGINT[]), CAST(:quantities AS INTEGER[])) AS r(product_id, quantity)
+            WHERE p.id = r.product_id
+              AND p.stock_amount >= r.quantity
+            RETURNING p.id
+            """, nativeQuery = true)
+    List<Long> reserveStock(@Param("productIds") Long[] productIds, @Param("quantities") Integer[] quantities);
+
+    /**
+     * Returns the stock reserved by all items of the given orders, aggregated per product into a single statement.
+     *
+     * @param orderIds the IDs of the orders whose stock to release
+     * @return the IDs of the products whose stock was released
+     */
+    @Query(value = """
+            UPDATE products p
+            SET stock_amount = p.stock_amount + r.quantity
+            FROM (SELECT oi.product_id, SUM(oi.quantity) AS quantity
+                  FROM order_items oi
+                  WHERE oi.order_id = ANY(CAST(:orderIds AS BIGINT[]))
+                  GROUP BY oi.product_id) r
+            WHERE p.id = r.product_id
+            RETURNING p.id
+            """, nativeQuery = true)
+    List<Long> releaseStockOfOrders(@Param("orderIds") Long[] orderIds);
+
+    /**
+     * Increments the stock of all given products in a single statement.
+     *
+     * @param productIds the IDs of the products to release, aligned with {@code quantities}
+     * @param quantities the quantities to release
+     */
+    @Modifying
+    @Query(value = """
+            UPDATE products p
+            SET stock_amount = p.stock_amount + r.quantity
+            FROM (SELECT product_id, SUM(quantity) AS quantity
+                  FROM unnest(CAST(:productIds AS BIGINT[]), CAST(:quantities AS INTEGER[])) AS u(product_id, quantity)
+                  GROUP BY product_id) r
+            WHERE p.id = r.product_id
+            """, nativeQuery = true)
+    void releaseStock(@Param("productIds") Long[] productIds, @Param("quantities") Integer[] quantities);
+
 }
@@ -0,0 +1,79 @@
+package com.rohlikgroup.casestudy.repository;
+
+import com.rohlikgroup.casestudy.dto.ProductStatsDto;
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Access to {@code product_stats}, the per product aggregates of the orders containing it. The aggregates are updated
+ * from the items of orders whose status changes, so the items must be flushed before. All methods must run inside the
+ * caller's transaction.
+ */
+@Repository
+@Timed(value = "jdbc.repository.invocations", histogram = true)
+@RequiredArgsConstructor
+public class ProductStatsRepository {
+
+    //the rows are upserted in key order, so that concurrent transactions can't deadlock on them
+    private static final String APPLY_ORDERS_SQL = """
+            INSERT INTO product_stats AS s (product_id, shard, reserved_quantity, sold_quantity, active_orders)
+            SELECT oi.product_id, oi.order_id % ?, ? * SUM(oi.quantity), ? * SUM(oi.quantity), ? * COUNT(DISTINCT oi.order_id)
+            FROM order_items oi
+            WHERE oi.order_id = ANY(CAST(? AS BIGINT[]))
+            GROUP BY 1, 2
+            ORDER BY 1, 2
+            ON CONFLICT (product_id, shard) DO UPDATE
+            SET reserved_quantity = s.reserved_quantity + EXCLUDED.reserved_quantity,
+                sold_quantity = s.sold_quantity + EXCLUDED.sold_quantity,
+                active_orders = s.active_orders + EXCLUDED.active_orders
+            """;
+
+    private static final String STATS_SQL = """
+            SELECT COALESCE(SUM(reserved_quantity), 0) AS reserved_quantity,
+                   COALESCE(SUM(sold_quantity), 0) AS sold_quantity,
+                   COALESCE(SUM(active_orders), 0) AS active_orders
+            FROM product_stats
+            WHERE product_id = ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${app.product-stats.shard-count:8}")
+    private int shardCount;
+
+    /**
+     * Adds the items of new pending orders to the reserved quantities and active orders of their products.
+     */
+    public void addCreatedOrders(Long[] orderIds) {
+        applyOrders(orderIds, 1, 0, 1);
+    }
+
+    /**
+     * Removes the items of canceled or expired pending orders from the reserved quantities and active orders.
+     */
+    public void addReleasedOrders(Long[] orderIds) {
+        applyOrders(orderIds, -1, 0, -1);
+    }
+
+    /**
+     * Moves the items of paid pending orders from the reserved to the sold quantities, paid orders stay active.
+     */
+    public void addPaidOrders(Long[] orderIds) {
+        applyOrders(orderIds, -1, 1, 0);
+    }
+
+    /**
+     * @return the aggregates of the product, zero when it was never ordered
+     */
+    public ProductStatsDto findStats(Long productId) {
+        return jdbcTemplate.queryForObject(STATS_SQL, (rs, rowNum) -> new ProductStatsDto(productId,
+                rs.getLong("reserved_quantity"), rs.getLong("sold_quantity"), rs.getInt("active_orders")), productId);
+    }
+
+    private void applyOrders(Long[] orderIds, int reservedSign, int soldSign, int activeSign) {
+        jdbcTemplate.update(APPLY_ORDERS_SQL, shardCount, reservedSign, soldSign, activeSign, orderIds);
+    }
+}
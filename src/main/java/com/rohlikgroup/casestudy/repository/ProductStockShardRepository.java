@@ -0,0 +1,205 @@
+package com.rohlikgroup.casestudy.repository;
+
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to {@code product_stock_shards}, the slots the stock of a product is split into in the sharded inventory mode,
+ * next to the stock left on the product row. All methods must run inside the caller's transaction.
+ */
+@Repository
+@Timed(value = "jdbc.repository.invocations", histogram = true)
+@RequiredArgsConstructor
+public class ProductStockShardRepository {
+
+    private static final String RESERVE_FROM_RANDOM_SHARDS_SQL = """
+            WITH picked AS MATERIALIZED (
+                SELECT r.product_id, r.quantity, c.shard
+                FROM unnest(CAST(? AS BIGINT[]), CAST(? AS INTEGER[])) AS r(product_id, quantity)
+                CROSS JOIN LATERAL (SELECT s.shard
+                                    FROM product_stock_shards s
+                                    WHERE s.product_id = r.product_id
+                                      AND s.stock_amount >= r.quantity
+                                    ORDER BY random()
+                                    LIMIT 1
+                                    FOR UPDATE SKIP LOCKED) c)
+            UPDATE product_stock_shards s
+            SET stock_amount = s.stock_amount - p.quantity
+            FROM picked p
+            WHERE s.product_id = p.product_id
+              AND s.shard = p.shard
+            RETURNING s.product_id
+            """;
+
+    private static final String LOCK_PRODUCT_ROWS_SQL = """
+            SELECT p.id, p.stock_amount
+            FROM products p
+            WHERE p.id = ANY(CAST(? AS BIGINT[]))
+            ORDER BY p.id
+            FOR UPDATE
+            """;
+
+    private static final String LOCK_SHARDS_SQL = """
+            SELECT s.product_id, s.shard, s.stock_amount
+            FROM product_stock_shards s
+            WHERE s.product_id = ANY(CAST(? AS BIGINT[]))
+            ORDER BY s.product_id, s.shard
+            FOR UPDATE
+            """;
+
+    private static final String TAKE_FROM_SHARDS_SQL = """
+            UPDATE product_stock_shards s
+            SET stock_amount = s.stock_amount - r.quantity
+            FROM unnest(CAST(? AS BIGINT[]), CAST(? AS INTEGER[]), CAST(? AS INTEGER[])) AS r(product_id, shard, quantity)
+            WHERE s.product_id = r.product_id
+              AND s.shard = r.shard
+            """;
+
+    //the %s is replaced by the quantities to release per product
+    private static final String RELEASE_STOCK_SQL = """
+            WITH released AS MATERIALIZED (
+                %s),
+            picked AS MATERIALIZED (
+                SELECT r.product_id, r.quantity, c.shard
+                FROM released r
+                CROSS JOIN LATERAL (SELECT s.shard
+                                    FROM product_stock_shards s
+                                    WHERE s.product_id = r.product_id
+                                    ORDER BY random()
+                                    LIMIT 1
+                                    FOR UPDATE SKIP LOCKED) c),
+            to_shards AS (
+                UPDATE product_stock_shards s
+                SET stock_amount = s.stock_amount + p.quantity
+                FROM picked p
+                WHERE s.product_id = p.product_id
+                  AND s.shard = p.shard
+                RETURNING s.product_id),
+            to_products AS (
+                UPDATE products pr
+                SET stock_amount = pr.stock_amount + r.quantity
+                FROM released r
+                WHERE pr.id = r.product_id
+                  AND r.product_id NOT IN (SELECT p.product_id FROM picked p)
+                RETURNING pr.id)
+            SELECT product_id FROM to_shards
+            UNION ALL
+            SELECT id FROM to_products
+            """;
+
+    private static final String RELEASE_STOCK_OF_ORDERS_SQL = RELEASE_STOCK_SQL.formatted("""
+            SELECT oi.product_id, SUM(oi.quantity) AS quantity
+                FROM order_items oi
+                WHERE oi.order_id = ANY(CAST(? AS BIGINT[]))
+                GROUP BY oi.product_id""");
+
+    private static final String RELEASE_QUANTITIES_SQL = RELEASE_STOCK_SQL.formatted("""
+            SELECT u.product_id, SUM(u.quantity) AS quantity
+                FROM unnest(CAST(? AS BIGINT[]), CAST(? AS INTEGER[])) AS u(product_id, quantity)
+                GROUP BY u.product_id""");
+
+    private static final String INSERT_SHARDS_SQL = """
+            INSERT INTO product_stock_shards (product_id, shard, stock_amount)
+            SELECT ?, n, ? / ? + CASE WHEN n < ? % ? THEN 1 ELSE 0 END
+            FROM generate_series(0, ? - 1) n
+            """;
+
+    private static final String STOCK_AMOUNTS_SQL = """
+            SELECT s.product_id, SUM(s.stock_amount) AS stock_amount
+            FROM product_stock_shards s
+            WHERE s.product_id = ANY(CAST(? AS BIGINT[]))
+            GROUP BY s.product_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Reserves each product from one randomly picked shard that has enough stock. Shards locked by concurrent
+     * reservations are skipped, so a product is missing from the result when it has no unlocked shard with enough stock.
+     *
+     * @param productIds the IDs of the products to reserve, aligned with {@code quantities}
+     * @param quantities the quantities to reserve
+     * @return the IDs of the products whose stock was reserved
+     */
+    public List<Long> reserveFromRandomShards(Long[] productIds, Integer[] quantities) {
+        return jdbcTemplate.queryForList(RESERVE_FROM_RANDOM_SHARDS_SQL, Long.class, productIds, quantities);
+    }
+
+    /**
+     * Locks the product rows of the given products, waiting for concurrent reservations. Rows are locked in ID order and
+     * must be locked before the shards of their products.
+     *
+     * @return the stock left on the product rows by product ID, products that don't exist are missing
+     */
+    public Map<Long, Integer> lockProductRows(Long[] productIds) {
+        Map<Long, Integer> stockAmounts = new HashMap<>();
+        jdbcTemplate.query(LOCK_PRODUCT_ROWS_SQL, (RowCallbackHandler) rs -> stockAmounts.put(rs.getLong("id"), rs.getInt("stock_amount")), (Object) productIds);
+        return stockAmounts;
+    }
+
+    /**
+     * Locks all shards of the given products, waiting for concurrent reservations. Shards are locked in a fixed order.
+     */
+    public List<ShardStock> lockShards(Long[] productIds) {
+        return jdbcTemplate.query(LOCK_SHARDS_SQL,
+                (rs, rowNum) -> new ShardStock(rs.getLong("product_id"), rs.getInt("shard"), rs.getInt("stock_amount")),
+                (Object) productIds);
+    }
+
+    /**
+     * Decrements the given shards, which the caller has locked with {@link #lockShards(Long[])}.
+     */
+    public void takeFromShards(Long[] productIds, Integer[] shards, Integer[] quantities) {
+        jdbcTemplate.update(TAKE_FROM_SHARDS_SQL, productIds, shards, quantities);
+    }
+
+    /**
+     * Returns the stock reserved by all items of the given orders to a random unlocked shard of each product. Products
+     * without an unlocked shard, including products that are not sharded, get the stock back on their product row.
+     *
+     * @param orderIds the IDs of the orders whose stock to release
+     * @return the IDs of the products whose stock was released
+     */
+    public List<Long> releaseStockOfOrders(Long[] orderIds) {
+        return jdbcTemplate.queryForList(RELEASE_STOCK_OF_ORDERS_SQL, Long.class, (Object) orderIds);
+    }
+
+    /**
+     * Returns the given quantities to a random unlocked shard of each product, or to the product row like
+     * {@link #releaseStockOfOrders(Long[])}.
+     */
+    public void releaseStock(Long[] productIds, Integer[] quantities) {
+        jdbcTemplate.queryForList(RELEASE_QUANTITIES_SQL, Long.class, productIds, quantities);
+    }
+
+    /**
+     * Replaces the shards of a product with {@code shardCount} shards holding {@code stockAmount} in total.
+     */
+    public void replaceShards(Long productId, int stockAmount, int shardCount) {
+        deleteShards(productId);
+        jdbcTemplate.update(INSERT_SHARDS_SQL, productId, stockAmount, shardCount, stockAmount, shardCount, shardCount);
+    }
+
+    public void deleteShards(Long productId) {
+        jdbcTemplate.update("DELETE FROM product_stock_shards WHERE product_id = ?", productId);
+    }
+
+    /**
+     * @return the stock of all shards of the given products summed per product ID, products without shards are missing
+     */
+    public Map<Long, Integer> findStockAmounts(Long[] productIds) {
+        Map<Long, Integer> stockAmounts = new HashMap<>();
+        jdbcTemplate.query(STOCK_AMOUNTS_SQL, (RowCallbackHandler) rs -> stockAmounts.put(rs.getLong("product_id"), rs.getInt("stock_amount")), (Object) productIds);
+        return stockAmounts;
+    }
+
+    public record ShardStock(long productId, int shard, int stockAmount) {
+    }
+}
@@ -0,0 +1,101 @@
+package com.rohlikgroup.casestudy.repository;
+
+import io.micrometer.core.annotation.Timed;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to {@code stock_journal}, the stock deltas of the in-memory inventory mode that are not yet applied to
+ * {@code products.stock_amount}. The stock of a product is its product row plus its journaled deltas.
+ */
+@Repository
+@Timed(value = "jdbc.repository.invocations", histogram = true)
+@RequiredArgsConstructor
+public class StockJournalRepository {
+
+    private static final String APPEND_SQL = """
+            INSERT INTO stock_journal (product_id, delta)
+            SELECT * FROM unnest(CAST(? AS BIGINT[]), CAST(? AS INTEGER[]))
+            """;
+
+    private static final String FLUSH_SQL = """
+            WITH flushed AS (
+                DELETE FROM stock_journal
+                RETURNING product_id, delta),
+            coalesced AS (
+                SELECT product_id, SUM(delta) AS delta
+                FROM flushed
+                GROUP BY product_id)
+            UPDATE products p
+            SET stock_amount = p.stock_amount + c.delta
+            FROM coalesced c
+            WHERE p.id = c.product_id
+              AND c.delta <> 0
+            """;
+
+    private static final String STOCK_SQL = """
+            SELECT p.id, p.stock_amount + COALESCE((SELECT SUM(j.delta) FROM stock_journal j WHERE j.product_id = p.id), 0) AS stock_amount
+            FROM products p
+            """;
+
+    private static final String QUANTITIES_OF_ORDERS_SQL = """
+            SELECT oi.product_id, SUM(oi.quantity) AS quantity
+            FROM order_items oi
+            WHERE oi.order_id = ANY(CAST(? AS BIGINT[]))
+            GROUP BY oi.product_id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Appends stock deltas in the current transaction.
+     *
+     * @param productIds the IDs of the products, aligned with {@code deltas}
+     * @param deltas     the stock changes, negative for reservations
+     */
+    public void append(Long[] productIds, Integer[] deltas) {
+        jdbcTemplate.update(APPEND_SQL, productIds, deltas);
+    }
+
+    /**
+     * Applies all committed deltas to the product rows, coalesced into one update per product, and removes them from
+     * the journal. Deltas of concurrent uncommitted transactions stay in the journal for the next flush.
+     *
+     * @return the number of products updated
+     */
+    public int flush() {
+        return jdbcTemplate.update(FLUSH_SQL);
+    }
+
+    /**
+     * @return the stock of every product including its journaled deltas, keyed by product ID
+     */
+    public Map<Long, Long> findAllStockAmounts() {
+        Map<Long, Long> stockAmounts = new HashMap<>();
+        jdbcTemplate.query(STOCK_SQL, (RowCallbackHandler) rs -> stockAmounts.put(rs.getLong("id"), rs.getLong("stock_amount")));
+        return stockAmounts;
+    }
+
+    /**
+     * @return the stock of the product including its journaled deltas, {@code null} when the product does not exist
+     */
+    public Long findStockAmount(Long productId) {
+        List<Long> stockAmounts = jdbcTemplate.query(STOCK_SQL + " WHERE p.id = ?", (rs, rowNum) -> rs.getLong("stock_amount"), productId);
+        return stockAmounts.isEmpty() ? null : stockAmounts.get(0);
+    }
+
+    /**
+     * @return the quantities ordered by all items of the given orders, summed per product ID
+     */
+    public Map<Long, Integer> findQuantitiesOfOrders(Long[] orderIds) {
+        Map<Long, Integer> quantities = new HashMap<>();
+        jdbcTemplate.query(QUANTITIES_OF_ORDERS_SQL, (RowCallbackHandler) rs -> quantities.put(rs.getLong("product_id"), rs.getInt("quantity")), (Object) orderIds);
+        return quantities;
+    }
+}
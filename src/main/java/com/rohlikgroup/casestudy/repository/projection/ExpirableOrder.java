@@ -0,0 +1,11 @@
+package com.rohlikgroup.casestudy.repository.projection;
+
+import java.time.LocalDateTime;
+
+public interface ExpirableOrder {
+
+    Long getId();
+
+    LocalDateTime getCreatedAt();
+
+}
@@ -0,0 +1,22 @@
+package com.rohlikgroup.casestudy.repository.projection;
+
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * An order joined with one of its items and the item's product. The item and product columns are {@code null} for an
+ * order without items.
+ */
+public record OrderItemRow(Long orderId,
+                           OrderStatus status,
+                           LocalDateTime paidAt,
+                           Long itemId,
+                           Integer quantity,
+                           Long productId,
+                           String productName,
+                           Integer stockAmount,
+                           BigDecimal price) {
+
+}
@@ -0,0 +1,14 @@
+package com.rohlikgroup.casestudy.service;
+
+import java.util.List;
+
+/**
+ * Outcome of {@link OrderService#expireOrders(java.util.Collection)}. The given orders missing from both lists are still
+ * pending, but were locked by a payment or cancellation in progress or are not due yet by the clock of the database.
+ *
+ * @param expiredOrderIds    the IDs of the orders expired
+ * @param notPendingOrderIds the IDs of the orders that were already paid, canceled, expired or deleted
+ */
+public record ExpireOrdersResult(List<Long> expiredOrderIds,
+                                 List<Long> notPendingOrderIds) {
+}
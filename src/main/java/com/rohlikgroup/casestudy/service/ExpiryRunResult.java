@@ -0,0 +1,21 @@
+package com.rohlikgroup.casestudy.service;
+
+import java.time.Duration;
+
+/**
+ * Outcome of a single {@link OrderService#releaseUnpaidOrders()} run.
+ *
+ * @param lockAcquired     whether this node got the expiry lock, {@code false} when another node is expiring orders
+ * @param expiredOrders    the number of orders expired by this run
+ * @param backlogRemaining whether the run stopped at its chunk limit with more orders possibly due
+ * @param lag              how long after its payment deadline the oldest expired order was expired
+ */
+public record ExpiryRunResult(boolean lockAcquired,
+                              int expiredOrders,
+                              boolean backlogRemaining,
+                              Duration lag) {
+
+    public static ExpiryRunResult notAcquired() {
+        return new ExpiryRunResult(false, 0, false, Duration.ZERO);
+    }
+}
@@ -0,0 +1,69 @@
+package com.rohlikgroup.casestudy.service;
+
+import com.rohlikgroup.casestudy.repository.OrderPartitionRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.List;
+
+/**
+ * Maintains the monthly partitions of orders and order items in the "partitioned" profile. Partitions are created a few
+ * months ahead, so that inserts never miss one, and partitions older than the retention are detached, so that the
+ * number of partitions an order lookup by ID searches stays bounded as the history grows. Detached partitions stay in
+ * place as standalone tables to be archived. Only one node maintains the partitions at a time.
+ */
+@Component
+@ConditionalOnProperty(name = "app.orders.partitioning.enabled", havingValue = "true")
+@Slf4j
+public class OrderPartitionMaintenance {
+
+    private static final long PARTITION_MAINTENANCE_LOCK_KEY = 0x7061727469L;
+
+    private final OrderPartitionRepository orderPartitionRepository;
+    private final int premakeMonths;
+    private final int retentionMonths;
+
+    public OrderPartitionMaintenance(OrderPartitionRepository orderPartitionRepository,
+                                     @Value("${app.orders.partitioning.premake-months:3}") int premakeMonths,
+                                     @Value("${app.orders.partitioning.retention-months:24}") int retentionMonths) {
+        this.orderPartitionRepository = orderPartitionRepository;
+        this.premakeMonths = premakeMonths;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @Scheduled(fixedDelayString = "${app.orders.partitioning.interval-ms:3600000}")
+    public void maintainPartitions() {
+        try {
+            if (!orderPartitionRepository.runWithAdvisoryLock(PARTITION_MAINTENANCE_LOCK_KEY, () -> maintainPartitions(LocalDate.now()))) {
+                log.debug("Skipped the partition maintenance, another node is running it");
+            }
+        } catch (RuntimeException e) {
+            //the partitions are created months ahead, so the next run has plenty of time to retry
+            log.error("Failed to maintain the order partitions", e);
+        }
+    }
+
+    void maintainPartitions(LocalDate today) {
+        LocalDate month = today.withDayOfMonth(1);
+        int created = orderPartitionRepository.createPartitions(month, month.plusMonths(premakeMonths));
+        if (created > 0) {
+            log.info("Created {} order partitions up to {}", created, month.plusMonths(premakeMonths));
+        }
+        if (retentionMonths <= 0) {
+            return;
+        }
+
+        //the items reference their orders, so the partitions of the items are detached first
+        LocalDate retainedFrom = month.minusMonths(retentionMonths);
+        for (String table : List.of(OrderPartitionRepository.ORDER_ITEMS, OrderPartitionRepository.ORDERS)) {
+            for (String partition : orderPartitionRepository.findPartitionsBefore(table, retainedFrom)) {
+                orderPartitionRepository.detachPartition(table, partition);
+                log.info("Detached the partition {} of {}", partition, table);
+            }
+        }
+    }
+}
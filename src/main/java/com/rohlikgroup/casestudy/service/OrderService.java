@@ -2,11 +2,19 @@ package com.rohlikgroup.casestudy.service;
 
 import com.rohlikgroup.casestudy.dto.OrderDto;
 import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult;
+import com.rohlikgroup.casestudy.dto.CreateOrdersRequest;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.stereotype.Service;
 import org.springframework.validation.annotation.Validated;
 
+import java.util.Collection;
 import java.util.List;
 
 @Service
@@ -21,6 +29,15 @@ public interface OrderService {
      */
     OrderDto createOrder(@Valid @NotNull CreateOrderRequest order);
 
+    /**
+     * Creates many orders in a single transaction. Every order is created or rejected on its own, an order is only
+     * created when all of its items are in stock.
+     *
+     * @param orders the orders to create
+     * @return the outcome of every order, in the order of the request
+     */
+    List<CreateOrderResult> createOrders(@Valid @NotNull CreateOrdersRequest orders);
+
     /**
      * Cancels an order.
      *
@@ -37,8 +54,56 @@ public interface OrderService {
      */
     OrderDto setOrderPaid(@NotNull Long orderId);
 
-    List<OrderDto> getOrders();
+    /**
+     * Marks many orders as paid in a single transaction with one conditional update, without loading the orders first.
+     * Every order is paid or rejected on its own, only pending orders can be paid.
+     *
+     * @param orders the orders to pay
+     * @return the outcome of every order, in the order of the request
+     */
+    List<PayOrderResult> setOrdersPaid(@Valid @NotNull PayOrdersRequest orders);
+
+    /**
+     * Retrieves a page of orders ordered by ID.
+     *
+     * @param afterId the ID to continue after, {@code null} for the first page
+     * @param limit   the page size, capped at the configured maximum
+     * @return the page of orders
+     */
+    KeysetPage<OrderDto> getOrders(Long afterId, @Min(1) int limit);
+
+    /**
+     * Retrieves a page of orders ordered by ID as flat rows of their items, for responses that are written straight
+     * from the rows.
+     *
+     * @param afterId the ID to continue after, {@code null} for the first page
+     * @param limit   the page size in orders, capped at the configured maximum
+     * @return the rows of the page of orders
+     */
+    KeysetPage<OrderItemRow> getOrderRows(Long afterId, @Min(1) int limit);
+
+    /**
+     * Expires pending orders that were not paid in time and releases their stock. Does nothing when another node
+     * is already expiring orders.
+     *
+     * @return the outcome of the run
+     */
+    ExpiryRunResult releaseUnpaidOrders();
 
-    void releaseUnpaidOrders();
+    /**
+     * Expires those of the given orders that are still pending and past their payment deadline and releases their stock.
+     * The deadlines of the orders that are no longer pending are removed from the expiry registry.
+     *
+     * @param orderIds the IDs of the orders to expire
+     * @return the expired orders and the orders that were no longer pending
+     */
+    ExpireOrdersResult expireOrders(@NotNull Collection<Long> orderIds);
+
+    /**
+     * Counts the pending orders that are already past their payment deadline and wait to be expired.
+     *
+     * @return the number of overdue orders
+     */
+    long countOverdueOrders();
 
 }
@@ -1,13 +1,14 @@
 package com.rohlikgroup.casestudy.service;
 
 
+import com.rohlikgroup.casestudy.dto.KeysetPage;
 import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.dto.ProductStatsDto;
 import jakarta.validation.Valid;
+import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotNull;
 import org.springframework.validation.annotation.Validated;
 
-import java.util.List;
-
 @Validated
 public interface ProductService {
 
@@ -36,11 +37,23 @@ public interface ProductService {
     ProductDto updateProduct(@NotNull Long productId, @NotNull @Valid ProductDto updatedProduct);
 
     /**
-     * Retrieves all products.
+     * Retrieves a page of products ordered by ID.
+     *
+     * @param afterId the ID to continue after, {@code null} for the first page
+     * @param limit   the page size, capped at the configured maximum
+     * @return the page of products
+     */
+    KeysetPage<ProductDto> getProducts(Long afterId, @Min(1) int limit);
+
+    /**
+     * Retrieves a page of products ordered by ID straight from the database, bypassing the cache, for reading the
+     * whole catalog batch by batch.
      *
-     * @return a list of all products
+     * @param afterId the ID to continue after, {@code null} for the first page
+     * @param limit   the page size, capped at the configured maximum
+     * @return the page of products
      */
-    List<ProductDto> getProducts();
+    KeysetPage<ProductDto> getProductBatch(Long afterId, @Min(1) int limit);
 
     /**
      * Retrieves a product by its ID.
@@ -50,4 +63,12 @@ public interface ProductService {
      */
     ProductDto getProduct(@NotNull Long productId);
 
+    /**
+     * Retrieves the aggregates of the orders of a product.
+     *
+     * @param productId the ID of the product
+     * @return the reserved and sold quantities and the number of active orders of the product
+     */
+    ProductStatsDto getProductStats(@NotNull Long productId);
+
 }
@@ -1,19 +1,153 @@
 package com.rohlikgroup.casestudy.service;
 
 
-import lombok.RequiredArgsConstructor;
+import com.rohlikgroup.casestudy.service.expiry.OrderExpiryRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Expires unpaid orders in two ways. Orders registered in the {@link OrderExpiryRegistry} are expired by id on every
+ * tick of its timing wheel, close to their exact deadline. The periodic sweep is the safety net for orders whose
+ * deadline got lost; it runs with an adaptive delay: as soon as possible while a backlog remains, at the base delay
+ * after a run that expired something and with an exponentially growing delay, up to the maximum, while idle.
+ */
 @Component
-@RequiredArgsConstructor
-public class ReleaseUnpaidOrdersScheduler {
+@Slf4j
+public class ReleaseUnpaidOrdersScheduler implements SchedulingConfigurer {
 
     private final OrderService orderService;
+    private final OrderExpiryRegistry orderExpiryRegistry;
+    private final int chunkSize;
+    private final Duration minDelay;
+    private final Duration baseDelay;
+    private final Duration maxDelay;
+    private final Timer runTimer;
+    private final Counter expiredOrdersCounter;
+    private final Counter skippedRunsCounter;
+    private final AtomicLong lagMillis = new AtomicLong();
+    private final AtomicLong overdueOrders = new AtomicLong();
+
+    private volatile Duration nextDelay;
+
+    public ReleaseUnpaidOrdersScheduler(OrderService orderService,
+                                        OrderExpiryRegistry orderExpiryRegistry,
+                                        MeterRegistry meterRegistry,
+                                        @Value("${app.order-expiry.chunk-size:500}") int chunkSize,
+                                        @Value("${app.order-expiry.min-delay:200ms}") Duration minDelay,
+                                        @Value("${app.order-expiry.base-delay:60s}") Duration baseDelay,
+                                        @Value("${app.order-expiry.max-delay:5m}") Duration maxDelay) {
+        this.orderService = orderService;
+        this.orderExpiryRegistry = orderExpiryRegistry;
+        this.chunkSize = chunkSize;
+        this.minDelay = minDelay;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.nextDelay = baseDelay;
+        this.runTimer = Timer.builder("orders.expiry.run")
+                .description("Duration of the unpaid order expiry runs")
+                .register(meterRegistry);
+        this.expiredOrdersCounter = Counter.builder("orders.expiry.expired")
+                .description("Orders expired by the unpaid order expiry")
+                .register(meterRegistry);
+        this.skippedRunsCounter = Counter.builder("orders.expiry.skipped")
+                .description("Expiry runs skipped because another node held the expiry lock")
+                .register(meterRegistry);
+        Gauge.builder("orders.expiry.lag", lagMillis, lag -> lag.get() / 1000.0)
+                .description("How long after its payment deadline the oldest order of the last run was expired")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        Gauge.builder("orders.expiry.backlog", overdueOrders, AtomicLong::get)
+                .description("Pending orders past their payment deadline that wait to be expired")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void configureTasks(ScheduledTaskRegistrar taskRegistrar) {
+        taskRegistrar.addTriggerTask(this::releaseUnpaidOrders, context -> {
+            Instant lastCompletion = context.lastCompletion();
+            return (lastCompletion == null ? Instant.now() : lastCompletion).plus(nextDelay);
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${app.order-expiry.wheel.tick-ms:100}")
+    public void expireDueOrders() {
+        List<Long> dueOrderIds = orderExpiryRegistry.pollDue();
+        for (int from = 0; from < dueOrderIds.size(); from += chunkSize) {
+            List<Long> chunk = dueOrderIds.subList(from, Math.min(from + chunkSize, dueOrderIds.size()));
+            try {
+                ExpireOrdersResult result = orderService.expireOrders(chunk);
+                expiredOrdersCounter.increment(result.expiredOrderIds().size());
+                Set<Long> settled = new HashSet<>(result.expiredOrderIds());
+                settled.addAll(result.notPendingOrderIds());
+                if (settled.size() < chunk.size()) {
+                    //still pending, but locked by a payment or cancellation in progress or not due by the clock of the database
+                    orderExpiryRegistry.retryLater(chunk.stream().filter(id -> !settled.contains(id)).toList());
+                }
+            } catch (RuntimeException e) {
+                log.error("Failed to expire due orders {}", chunk, e);
+                orderExpiryRegistry.retryLater(chunk);
+            }
+        }
+    }
 
-    @Scheduled(fixedRate = 5000)
     public void releaseUnpaidOrders() {
-        orderService.releaseUnpaidOrders();
+        long start = System.nanoTime();
+        try {
+            ExpiryRunResult result = orderService.releaseUnpaidOrders();
+            Duration duration = Duration.ofNanos(System.nanoTime() - start);
+            runTimer.record(duration);
+            nextDelay = nextDelay(result);
+
+            if (!result.lockAcquired()) {
+                skippedRunsCounter.increment();
+                return;
+            }
+            expiredOrdersCounter.increment(result.expiredOrders());
+            lagMillis.set(result.lag().toMillis());
+            if (result.expiredOrders() > 0) {
+                log.info("Expired {} unpaid orders in {} ms, lag behind deadline {} ms, backlog remaining: {}",
+                        result.expiredOrders(), duration.toMillis(), result.lag().toMillis(), result.backlogRemaining());
+            }
+        } catch (RuntimeException e) {
+            nextDelay = baseDelay;
+            log.error("Failed to release unpaid orders", e);
+        }
+    }
+
+    //counted on a schedule instead of on every scrape, so that scrapers can't put load on the database
+    @Scheduled(fixedDelayString = "${app.order-expiry.backlog-refresh-ms:15000}")
+    public void refreshBacklog() {
+        try {
+            overdueOrders.set(orderService.countOverdueOrders());
+        } catch (RuntimeException e) {
+            log.error("Failed to count overdue orders", e);
+        }
+    }
+
+    private Duration nextDelay(ExpiryRunResult result) {
+        if (result.backlogRemaining()) {
+            return minDelay;
+        }
+        if (!result.lockAcquired() || result.expiredOrders() > 0) {
+            return baseDelay;
+        }
+        Duration doubled = nextDelay.multipliedBy(2);
+        return doubled.compareTo(maxDelay) > 0 ? maxDelay : doubled.compareTo(baseDelay) < 0 ? baseDelay : doubled;
     }
 
 }
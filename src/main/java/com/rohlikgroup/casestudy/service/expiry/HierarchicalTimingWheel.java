@@ -0,0 +1,154 @@
+package com.rohlikgroup.casestudy.service.expiry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hierarchical timing wheel for deadlines with a fixed tick resolution.
+ * <p>
+ * Level 0 has {@code wheelSize} buckets of one tick each, every next level has buckets {@code wheelSize} times
+ * longer and is created on demand. Adding and expiring an entry is O(1) amortized regardless of the number of
+ * entries; entries in a higher level cascade down once the clock reaches their bucket. Entries are never
+ * returned before their deadline and at most one tick after it. Cancellation is left to the caller, which should
+ * ignore entries it no longer cares about when they are returned.
+ *
+ * @param <T> the type of the entries
+ */
+public class HierarchicalTimingWheel<T> {
+
+    private final long tickMillis;
+    private final int wheelSize;
+    private final List<Level<T>> levels = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private long currentTime;
+    private int size;
+
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, long startMillis) {
+        if (tickMillis <= 0 || wheelSize < 2) {
+            throw new IllegalArgumentException("Tick must be positive and the wheel must have at least two buckets");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.currentTime = startMillis - Math.floorMod(startMillis, tickMillis);
+        this.levels.add(new Level<>(tickMillis, wheelSize));
+    }
+
+    /**
+     * Adds an entry due at the given time.
+     *
+     * @param deadlineMillis the deadline in epoch millis
+     * @param entry          the entry
+     * @return {@code false} when the deadline has already passed and the entry was not added
+     */
+    public boolean add(long deadlineMillis, T entry) {
+        lock.lock();
+        try {
+            if (!place(deadlineMillis, entry)) {
+                return false;
+            }
+            size++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Advances the clock and returns all entries whose deadline has passed.
+     *
+     * @param nowMillis the current time in epoch millis
+     * @return the due entries
+     */
+    public List<T> advance(long nowMillis) {
+        List<T> due = new ArrayList<>();
+        lock.lock();
+        try {
+            while (currentTime + tickMillis <= nowMillis) {
+                List<Entry<T>> bucket = levels.get(0).take(currentTime);
+                for (Entry<T> entry : bucket) {
+                    due.add(entry.value());
+                }
+                size -= bucket.size();
+                currentTime += tickMillis;
+                cascade();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return due;
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cascade() {
+        for (int i = levels.size() - 1; i > 0; i--) {
+            Level<T> level = levels.get(i);
+            if (currentTime % level.tickMillis == 0) {
+                //entries of the bucket are due at or after its start, so they always fit into a lower level
+                for (Entry<T> entry : level.take(currentTime)) {
+                    place(entry.deadlineMillis(), entry.value());
+                }
+            }
+        }
+    }
+
+    private boolean place(long deadlineMillis, T value) {
+        if (deadlineMillis < currentTime) {
+            return false;
+        }
+        for (int i = 0; ; i++) {
+            if (i == levels.size()) {
+                levels.add(new Level<>(levels.get(i - 1).tickMillis * wheelSize, wheelSize));
+            }
+            Level<T> level = levels.get(i);
+            if (deadlineMillis / level.tickMillis - currentTime / level.tickMillis < wheelSize) {
+                level.add(deadlineMillis, new Entry<>(deadlineMillis, value));
+                return true;
+            }
+        }
+    }
+
+    private record Entry<T>(long deadlineMillis, T value) {
+    }
+
+    private static final class Level<T> {
+
+        private final long tickMillis;
+        private final List<List<Entry<T>>> buckets;
+
+        private Level(long tickMillis, int wheelSize) {
+            this.tickMillis = tickMillis;
+            this.buckets = new ArrayList<>(wheelSize);
+            for (int i = 0; i < wheelSize; i++) {
+                buckets.add(new ArrayList<>());
+            }
+        }
+
+        private void add(long timeMillis, Entry<T> entry) {
+            buckets.get(index(timeMillis)).add(entry);
+        }
+
+        private List<Entry<T>> take(long timeMillis) {
+            int index = index(timeMillis);
+            List<Entry<T>> bucket = buckets.get(index);
+            if (bucket.isEmpty()) {
+                return List.of();
+            }
+            buckets.set(index, new ArrayList<>());
+            return bucket;
+        }
+
+        private int index(long timeMillis) {
+            return (int) Math.floorMod(timeMillis / tickMillis, (long) buckets.size());
+        }
+    }
+}
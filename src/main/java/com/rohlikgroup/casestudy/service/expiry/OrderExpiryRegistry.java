@@ -0,0 +1,301 @@
+package com.rohlikgroup.casestudy.service.expiry;
+
+import com.rohlikgroup.casestudy.util.TransactionUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Payment deadlines of pending orders, kept in an in-memory {@link HierarchicalTimingWheel} and mirrored in a Redis
+ * sorted set per node so that they survive restarts of the node.
+ * <p>
+ * Every node announces itself with a heartbeat key that expires when the node stops refreshing it. A node restarted
+ * under the same {@code app.order-expiry.wheel.node-id} restores its own mirror, the mirrors of nodes without a
+ * heartbeat, e.g. pods rescheduled under a new host name, are adopted by the first node noticing it.
+ * <p>
+ * Registrations and removals are applied after the surrounding transaction commits. Due orders that could not be
+ * expired yet are retried a few times with a growing delay before they are left to the sweep. Redis failures only
+ * cost the durability of the mirror, orders whose deadline got lost are still picked up by the periodic expiry sweep.
+ */
+@Component
+@Slf4j
+public class OrderExpiryRegistry {
+
+    static final String DEADLINES_KEY_PREFIX = "orders:expiry-deadlines:";
+    static final String HEARTBEAT_KEY_PREFIX = "orders:expiry-heartbeat:";
+    static final String NODES_KEY = "orders:expiry-nodes";
+
+    private static final int RESTORE_PAGE_SIZE = 1000;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final boolean redisEnabled;
+    private final String nodeId;
+    private final String deadlinesKey;
+    private final String heartbeatKey;
+    private final Duration heartbeatTtl;
+    private final RedisScript<Long> adoptScript;
+    private final Duration paymentTimeout;
+    private final Duration retryDelay;
+    private final int maxAttempts;
+    private final HierarchicalTimingWheel<Long> wheel;
+    private final Map<Long, Long> deadlines = new ConcurrentHashMap<>();
+    //orders returned by pollDue and not unregistered since, with the number of times they were returned
+    private final Map<Long, Integer> attempts = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Long> overdue = new ConcurrentLinkedQueue<>();
+
+    private volatile long keyExpiryRefreshedAt;
+
+    public OrderExpiryRegistry(RedisTemplate<String, Object> redisTemplate,
+                               @Value("${app.order-expiry.wheel.redis-enabled:true}") boolean redisEnabled,
+                               @Value("${app.order-expiry.wheel.node-id:local}") String nodeId,
+                               @Value("${app.order-expiry.payment-timeout:30m}") Duration paymentTimeout,
+                               @Value("${app.order-expiry.wheel.tick-ms:100}") long tickMillis,
+                               @Value("${app.order-expiry.wheel.size:512}") int wheelSize,
+                               @Value("${app.order-expiry.wheel.retry-delay:1s}") Duration retryDelay,
+                               @Value("${app.order-expiry.wheel.max-attempts:4}") int maxAttempts,
+                               @Value("${app.order-expiry.wheel.heartbeat-ms:10000}") long heartbeatMillis) {
+        this.redisTemplate = redisTemplate;
+        this.redisEnabled = redisEnabled;
+        this.nodeId = nodeId;
+        this.deadlinesKey = DEADLINES_KEY_PREFIX + nodeId;
+        this.heartbeatKey = HEARTBEAT_KEY_PREFIX + nodeId;
+        //a node missing a few heartbeats in a row is considered gone
+        this.heartbeatTtl = Duration.ofMillis(heartbeatMillis * 3);
+        //merges the mirror of a node without a heartbeat into this node's mirror, unless another node was faster
+        //the union overwrites the destination including its expiry, which is set again
+        this.adoptScript = RedisScript.of("""
+                if redis.call('EXISTS', KEYS[2]) == 1 then
+                    return 0
+                end
+                local adopted = redis.call('ZCARD', KEYS[1])
+                if adopted > 0 then
+                    redis.call('ZUNIONSTORE', KEYS[3], 2, KEYS[3], KEYS[1], 'AGGREGATE', 'MIN')
+                    redis.call('PEXPIRE', KEYS[3], %d)
+                    redis.call('DEL', KEYS[1])
+                end
+                redis.call('SREM', KEYS[4], ARGV[1])
+                return adopted
+                """.formatted(paymentTimeout.multipliedBy(2).toMillis()), Long.class);
+        this.paymentTimeout = paymentTimeout;
+        this.retryDelay = retryDelay;
+        this.maxAttempts = maxAttempts;
+        this.wheel = new HierarchicalTimingWheel<>(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    /**
+     * Registers the payment deadline of a newly created order.
+     *
+     * @param orderId the ID of the order
+     */
+    public void register(Long orderId) {
+        long deadline = System.currentTimeMillis() + paymentTimeout.toMillis();
+        TransactionUtils.afterCommit(() -> {
+            schedule(orderId, deadline);
+            if (redisEnabled) {
+                try {
+                    redisTemplate.opsForZSet().add(deadlinesKey, orderId.toString(), deadline);
+                    refreshKeyExpiry();
+                } catch (RuntimeException e) {
+                    log.warn("Failed to mirror the expiry deadline of order {} to Redis: {}", orderId, e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes the deadlines of orders that were paid, canceled or expired.
+     *
+     * @param orderIds the IDs of the orders
+     */
+    public void unregister(Collection<Long> orderIds) {
+        if (orderIds.isEmpty()) {
+            return;
+        }
+        List<Long> ids = List.copyOf(orderIds);
+        TransactionUtils.afterCommit(() -> {
+            for (Long orderId : ids) {
+                //removed first, so that a concurrent retryLater can't schedule the order again
+                attempts.remove(orderId);
+                deadlines.remove(orderId);
+            }
+            removeFromMirror(ids);
+        });
+    }
+
+    /**
+     * Schedules due orders that were returned by {@link #pollDue()} but could not be expired, e.g. because they were
+     * locked by a payment in progress, to be returned again after a delay growing with every attempt. Orders that were
+     * unregistered in the meantime are skipped and orders out of attempts are left to the periodic sweep.
+     *
+     * @param orderIds the IDs of the orders
+     */
+    public void retryLater(Collection<Long> orderIds) {
+        long now = System.currentTimeMillis();
+        List<Long> abandoned = new ArrayList<>();
+        for (Long orderId : orderIds) {
+            attempts.computeIfPresent(orderId, (id, attempt) -> {
+                if (attempt >= maxAttempts) {
+                    abandoned.add(id);
+                    return null;
+                }
+                schedule(id, now + (retryDelay.toMillis() << (attempt - 1)));
+                return attempt;
+            });
+        }
+        if (!abandoned.isEmpty()) {
+            log.info("Leaving orders {} to the expiry sweep after {} attempts", abandoned, maxAttempts);
+            removeFromMirror(abandoned);
+        }
+    }
+
+    /**
+     * Advances the wheel to the current time.
+     *
+     * @return the IDs of the registered orders whose deadline has passed, each returned only once
+     */
+    public List<Long> pollDue() {
+        List<Long> due = new ArrayList<>();
+        for (Long orderId = overdue.poll(); orderId != null; orderId = overdue.poll()) {
+            pollDeadline(orderId, due);
+        }
+        for (Long orderId : wheel.advance(System.currentTimeMillis())) {
+            pollDeadline(orderId, due);
+        }
+        return due;
+    }
+
+    /**
+     * Restores the deadlines this node mirrored before it restarted, together with the deadlines of nodes that are gone.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void restore() {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            announceAndAdopt();
+            log.info("Restored {} order expiry deadlines from Redis", restoreMirror());
+        } catch (RuntimeException e) {
+            log.warn("Failed to restore order expiry deadlines from Redis, relying on the periodic sweep: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Refreshes the heartbeat of this node and adopts the deadlines of the nodes whose heartbeat expired.
+     */
+    @Scheduled(fixedDelayString = "${app.order-expiry.wheel.heartbeat-ms:10000}")
+    public void heartbeat() {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            if (announceAndAdopt() > 0) {
+                restoreMirror();
+            }
+        } catch (RuntimeException e) {
+            log.warn("Failed to refresh the order expiry heartbeat in Redis: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of deadlines adopted from nodes that are gone
+     */
+    private long announceAndAdopt() {
+        redisTemplate.opsForValue().set(heartbeatKey, nodeId, heartbeatTtl);
+        redisTemplate.opsForSet().add(NODES_KEY, nodeId);
+        long adopted = 0;
+        Set<Object> nodeIds = redisTemplate.opsForSet().members(NODES_KEY);
+        for (Object otherNodeId : nodeIds == null ? Set.of() : nodeIds) {
+            if (!nodeId.equals(otherNodeId.toString())) {
+                adopted += adopt(otherNodeId.toString());
+            }
+        }
+        return adopted;
+    }
+
+    private long adopt(String otherNodeId) {
+        Long adopted = redisTemplate.execute(adoptScript,
+                List.of(DEADLINES_KEY_PREFIX + otherNodeId, HEARTBEAT_KEY_PREFIX + otherNodeId, deadlinesKey, NODES_KEY), otherNodeId);
+        if (adopted != null && adopted > 0) {
+            log.info("Adopted {} order expiry deadlines of the node {}, which is gone", adopted, otherNodeId);
+        }
+        return adopted == null ? 0 : adopted;
+    }
+
+    /**
+     * Schedules the deadlines of this node's mirror that aren't known yet, the mirror may have grown by adopted deadlines.
+     *
+     * @return the number of scheduled deadlines
+     */
+    private int restoreMirror() {
+        int restored = 0;
+        for (long offset = 0; ; offset += RESTORE_PAGE_SIZE) {
+            Set<ZSetOperations.TypedTuple<Object>> page = redisTemplate.opsForZSet()
+                    .rangeByScoreWithScores(deadlinesKey, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, offset, RESTORE_PAGE_SIZE);
+            if (page == null || page.isEmpty()) {
+                return restored;
+            }
+            for (ZSetOperations.TypedTuple<Object> tuple : page) {
+                if (tuple.getValue() != null && tuple.getScore() != null) {
+                    Long orderId = Long.valueOf(tuple.getValue().toString());
+                    if (!deadlines.containsKey(orderId) && !attempts.containsKey(orderId)) {
+                        schedule(orderId, tuple.getScore().longValue());
+                        restored++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void pollDeadline(Long orderId, List<Long> due) {
+        if (deadlines.remove(orderId) != null) {
+            attempts.merge(orderId, 1, Integer::sum);
+            due.add(orderId);
+        }
+    }
+
+    private void removeFromMirror(List<Long> orderIds) {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            redisTemplate.opsForZSet().remove(deadlinesKey, orderIds.stream().map(Object::toString).toArray());
+        } catch (RuntimeException e) {
+            log.warn("Failed to remove the expiry deadlines of orders {} from Redis: {}", orderIds, e.getMessage());
+        }
+    }
+
+    /**
+     * Keeps the mirror of a node alive while it registers orders. Once the node is gone for longer than the payment
+     * timeout all its orders are overdue and the sweep expires them, so the mirror isn't needed anymore.
+     */
+    private void refreshKeyExpiry() {
+        long now = System.currentTimeMillis();
+        if (now - keyExpiryRefreshedAt > paymentTimeout.toMillis() / 2) {
+            keyExpiryRefreshedAt = now;
+            redisTemplate.expire(deadlinesKey, paymentTimeout.multipliedBy(2));
+        }
+    }
+
+    private void schedule(Long orderId, long deadline) {
+        deadlines.put(orderId, deadline);
+        if (!wheel.add(deadline, orderId)) {
+            overdue.add(orderId);
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package com.rohlikgroup.casestudy.service.idempotency;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.exception.IdempotencyKeyReusedException;
+import com.rohlikgroup.casestudy.exception.RequestInProgressException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs an action at most once per idempotency key and replays its result to retries of the same request.
+ * <p>
+ * The first request for a key claims it in Redis with an in-flight marker and replaces the marker with the result once
+ * the action succeeds, so retries within {@code app.idempotency.ttl} get the stored result without touching the
+ * database. Duplicates arriving on the same node while the action runs wait for it by sharing its future. Duplicates
+ * on other nodes are rejected with {@link RequestInProgressException} right away, so that they don't hold a request
+ * thread and a concurrency permit while the action runs, and the client retries after
+ * {@code app.idempotency.retry-after}. A failed action releases the key so that a retry runs it again. The marker expires after
+ * {@code app.idempotency.in-flight-ttl} in case the node dies, and is renewed while the action runs, so a slow action is
+ * never run a second time. When Redis is disabled or unavailable, only duplicates on the same node are coalesced.
+ * <p>
+ * The marker and the result are stored with a hash of the request, a request reusing the key with a different body is
+ * rejected with {@link IdempotencyKeyReusedException}.
+ */
+@Component
+@Slf4j
+public class IdempotencyGuard {
+
+    static final String KEY_PREFIX = "idempotency:";
+    static final String IN_FLIGHT = "in-flight";
+
+    private static final int MAX_KEY_LENGTH = 255;
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final boolean redisEnabled;
+    private final Duration ttl;
+    private final Duration inFlightTtl;
+    private final Duration retryAfter;
+    private final RedisScript<Long> renewScript;
+    private final RedisScript<Long> releaseScript;
+    private final ScheduledExecutorService renewals = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("idempotency-renewal").daemon().factory());
+    private final Map<String, Execution> running = new ConcurrentHashMap<>();
+
+    public IdempotencyGuard(RedisTemplate<String, Object> redisTemplate,
+                            ObjectMapper objectMapper,
+                            @Value("${app.idempotency.redis-enabled:true}") boolean redisEnabled,
+                            @Value("${app.idempotency.ttl:24h}") Duration ttl,
+                            @Value("${app.idempotency.in-flight-ttl:30s}") Duration inFlightTtl,
+                            @Value("${app.idempotency.retry-after:1s}") Duration retryAfter) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.redisEnabled = redisEnabled;
+        this.ttl = ttl;
+        this.inFlightTtl = inFlightTtl;
+        this.retryAfter = retryAfter;
+        //both only touch the key while it still holds the marker of this node
+        this.renewScript = RedisScript.of("""
+                if redis.call('GET', KEYS[1]) == ARGV[1] then
+                    return redis.call('PEXPIRE', KEYS[1], %d)
+                end
+                return 0
+                """.formatted(inFlightTtl.toMillis()), Long.class);
+        this.releaseScript = RedisScript.of("""
+                if redis.call('GET', KEYS[1]) == ARGV[1] then
+                    return redis.call('DEL', KEYS[1])
+                end
+                return 0
+                """, Long.class);
+    }
+
+    /**
+     * Runs the action unless it already ran or is running for the same key, in which case its result is returned.
+     *
+     * @param scope          the kind of request, keys of different scopes never collide
+     * @param idempotencyKey the key chosen by the client
+     * @param request        the request, retries must send the same one
+     * @param resultType     the type of the result
+     * @param action         the action to run, its result must be serializable by the Redis template
+     * @return the result of the action
+     * @throws IdempotencyKeyReusedException when the key was used for a different request
+     * @throws RequestInProgressException   when the action is still running on another node
+     */
+    public <T> T execute(String scope, String idempotencyKey, Object request, Class<T> resultType, Supplier<T> action) {
+        if (idempotencyKey.isBlank() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must have between 1 and " + MAX_KEY_LENGTH + " characters");
+        }
+        String key = KEY_PREFIX + scope + ":" + idempotencyKey;
+        String requestHash = hash(request);
+
+        Execution execution = new Execution(requestHash, new CompletableFuture<>());
+        Execution existing = running.putIfAbsent(key, execution);
+        if (existing != null) {
+            if (!existing.requestHash().equals(requestHash)) {
+                throw new IdempotencyKeyReusedException();
+            }
+            try {
+                return resultType.cast(existing.result().join());
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+        try {
+            T result = claimAndRun(key, requestHash, resultType, action);
+            execution.result().complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            execution.result().completeExceptionally(e);
+            throw e;
+        } finally {
+            running.remove(key, execution);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        renewals.shutdownNow();
+    }
+
+    private <T> T claimAndRun(String key, String requestHash, Class<T> resultType, Supplier<T> action) {
+        //the claim token tells this node's marker apart from the marker of a node that claimed the key after it expired
+        List<String> marker = List.of(requestHash, IN_FLIGHT, UUID.randomUUID().toString());
+        for (int attempt = 1; ; attempt++) {
+            List<?> claim = claim(key, marker);
+            if (claim == null) {
+                return runClaimed(key, requestHash, marker, action);
+            }
+            if (!requestHash.equals(claim.get(0))) {
+                throw new IdempotencyKeyReusedException();
+            }
+            if (claim.size() == 2 && resultType.isInstance(claim.get(1))) {
+                log.debug("Replaying the stored result of {}", key);
+                return resultType.cast(claim.get(1));
+            }
+            //this node's own marker stands for a key that was released or expired in the meantime, it's claimed once more
+            if (claim != marker || attempt > 1) {
+                throw new RequestInProgressException(retryAfter);
+            }
+        }
+    }
+
+    /**
+     * Claims the key for this node.
+     *
+     * @return {@code null} when the key was claimed, otherwise the stored result or in-flight marker, both starting with
+     * the hash of their request
+     */
+    private List<?> claim(String key, List<String> marker) {
+        if (!redisEnabled) {
+            return null;
+        }
+        try {
+            if (Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, marker, inFlightTtl))) {
+                return null;
+            }
+            //the key was released or expired in the meantime, the next attempt claims it
+            return redisTemplate.opsForValue().get(key) instanceof List<?> stored && stored.size() >= 2 ? stored : marker;
+        } catch (RuntimeException e) {
+            log.warn("Failed to claim {} in Redis, running the request without cross-node deduplication: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private <T> T runClaimed(String key, String requestHash, List<String> marker, Supplier<T> action) {
+        ScheduledFuture<?> renewal = redisEnabled ? scheduleRenewal(key, marker) : null;
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException | Error e) {
+            cancel(renewal);
+            release(key, marker);
+            throw e;
+        }
+        cancel(renewal);
+        store(key, List.of(requestHash, result));
+        return result;
+    }
+
+    private ScheduledFuture<?> scheduleRenewal(String key, List<String> marker) {
+        long periodMillis = Math.max(1, inFlightTtl.toMillis() / 3);
+        return renewals.scheduleAtFixedRate(() -> {
+            try {
+                if (!Long.valueOf(1).equals(redisTemplate.execute(renewScript, List.of(key), marker))) {
+                    log.warn("Lost the in-flight marker of {}, a retry may run the request again", key);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Failed to renew the in-flight marker of {}: {}", key, e.getMessage());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cancel(ScheduledFuture<?> renewal) {
+        if (renewal != null) {
+            renewal.cancel(false);
+        }
+    }
+
+    private void store(String key, List<Object> result) {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            redisTemplate.opsForValue().set(key, result, ttl);
+        } catch (RuntimeException e) {
+            log.warn("Failed to store the result of {} in Redis: {}", key, e.getMessage());
+        }
+    }
+
+    private void release(String key, List<String> marker) {
+        if (!redisEnabled) {
+            return;
+        }
+        try {
+            redisTemplate.execute(releaseScript, List.of(key), marker);
+        } catch (RuntimeException e) {
+            log.warn("Failed to release {} in Redis, it expires in {}: {}", key, inFlightTtl, e.getMessage());
+        }
+    }
+
+    String hash(Object request) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(request)));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot hash the request", e);
+        }
+    }
+
+    private record Execution(String requestHash, CompletableFuture<Object> result) {
+    }
+}
@@ -0,0 +1,113 @@
+package com.rohlikgroup.casestudy.service.impl;
+
+import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.OrderItem;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.entity.Product;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Helpers for the items of order requests on the path of every order creation. They work with primitive arrays and
+ * pre-sized collections instead of streams and collectors, which allocate per call, so that order creation produces
+ * little garbage beyond the entities and DTOs themselves.
+ */
+public final class OrderRequests {
+
+    //up to this many items the pairwise comparison is cheaper than sorting a copy of the IDs
+    private static final int PAIRWISE_DUPLICATE_CHECK_LIMIT = 16;
+    private static final Comparator<OrderItemRequest> BY_PRODUCT_ID = Comparator.comparingLong(OrderItemRequest::productId);
+
+    private OrderRequests() {
+    }
+
+    /**
+     * @return whether a product is ordered by more than one item
+     */
+    public static boolean hasDuplicateProducts(List<OrderItemRequest> items) {
+        int size = items.size();
+        if (size <= PAIRWISE_DUPLICATE_CHECK_LIMIT) {
+            for (int i = 1; i < size; i++) {
+                long productId = items.get(i).productId();
+                for (int j = 0; j < i; j++) {
+                    if (items.get(j).productId() == productId) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        long[] productIds = new long[size];
+        for (int i = 0; i < size; i++) {
+            productIds[i] = items.get(i).productId();
+        }
+        Arrays.sort(productIds);
+        for (int i = 1; i < size; i++) {
+            if (productIds[i] == productIds[i - 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Orders the items by product ID. Reserving stock in this order makes concurrent orders lock the same products in
+     * the same order, so baskets listing them differently can't deadlock each other.
+     */
+    public static List<OrderItemRequest> sortedByProductId(List<OrderItemRequest> items) {
+        OrderItemRequest[] sorted = items.toArray(new OrderItemRequest[0]);
+        Arrays.sort(sorted, BY_PRODUCT_ID);
+        return Arrays.asList(sorted);
+    }
+
+    public static Long[] productIds(List<OrderItemRequest> items) {
+        Long[] productIds = new Long[items.size()];
+        for (int i = 0; i < productIds.length; i++) {
+            productIds[i] = items.get(i).productId();
+        }
+        return productIds;
+    }
+
+    public static Integer[] quantities(List<OrderItemRequest> items) {
+        Integer[] quantities = new Integer[items.size()];
+        for (int i = 0; i < quantities.length; i++) {
+            quantities[i] = items.get(i).quantity();
+        }
+        return quantities;
+    }
+
+    public static Map<Long, Product> productsById(List<Product> products) {
+        Map<Long, Product> productsById = HashMap.newHashMap(products.size());
+        for (Product product : products) {
+            productsById.put(product.getId(), product);
+        }
+        return productsById;
+    }
+
+    /**
+     * Creates a pending order with an item for every requested item, the products must contain all requested products.
+     */
+    public static Order pendingOrder(List<OrderItemRequest> items, Map<Long, Product> products) {
+        Order order = new Order();
+        order.setStatus(OrderStatus.PENDING);
+
+        List<OrderItem> orderItems = new ArrayList<>(items.size());
+        for (OrderItemRequest item : items) {
+            OrderItem orderItem = new OrderItem();
+            orderItem.setProduct(products.get(item.productId()));
+            orderItem.setQuantity(item.quantity());
+            orderItem.setOrder(order);
+            orderItems.add(orderItem);
+        }
+
+        order.setOrderItems(orderItems);
+        return order;
+    }
+}
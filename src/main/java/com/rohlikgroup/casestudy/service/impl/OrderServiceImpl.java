@@ -1,103 +1,297 @@
 package com.rohlikgroup.casestudy.service.impl;
 
+import com.rohlikgroup.casestudy.cache.ProductCache;
 import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult.Outcome;
+import com.rohlikgroup.casestudy.dto.CreateOrdersRequest;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
 import com.rohlikgroup.casestudy.dto.OrderDto;
 import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
 import com.rohlikgroup.casestudy.entity.Order;
-import com.rohlikgroup.casestudy.entity.OrderItem;
 import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.entity.Product;
 import com.rohlikgroup.casestudy.exception.InsufficientStockException;
+import com.rohlikgroup.casestudy.mapper.OrderItemRows;
 import com.rohlikgroup.casestudy.mapper.OrderMapper;
 import com.rohlikgroup.casestudy.repository.OrderRepository;
 import com.rohlikgroup.casestudy.repository.ProductRepository;
+import com.rohlikgroup.casestudy.repository.ProductStatsRepository;
+import com.rohlikgroup.casestudy.repository.projection.ExpirableOrder;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import com.rohlikgroup.casestudy.service.ExpireOrdersResult;
+import com.rohlikgroup.casestudy.service.ExpiryRunResult;
 import com.rohlikgroup.casestudy.service.OrderService;
+import com.rohlikgroup.casestudy.service.expiry.OrderExpiryRegistry;
+import com.rohlikgroup.casestudy.service.outbox.Outbox;
+import com.rohlikgroup.casestudy.service.outbox.OutboxEventType;
+import com.rohlikgroup.casestudy.service.retry.ConflictRetrier;
+import com.rohlikgroup.casestudy.service.retry.RetryOnConflict;
+import com.rohlikgroup.casestudy.service.stock.AvailableStock;
+import com.rohlikgroup.casestudy.service.stock.StockLedger;
+import io.micrometer.core.annotation.Timed;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityNotFoundException;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
+@Timed(value = "service.invocations", histogram = true)
 @RequiredArgsConstructor
 @Slf4j
 public class OrderServiceImpl implements OrderService {
 
+    private static final long ORDER_EXPIRY_LOCK_KEY = 0x6F72646572L;
+    private static final String DUPLICATE_PRODUCTS_MESSAGE = "Duplicate product IDs are not allowed in the order";
+
     private final OrderRepository orderRepository;
     private final ProductRepository productRepository;
+    private final ProductStatsRepository productStatsRepository;
     private final OrderMapper orderMapper;
+    private final ProductCache productCache;
+    private final TransactionTemplate transactionTemplate;
+    private final OrderExpiryRegistry orderExpiryRegistry;
+    private final StockLedger stockLedger;
+    private final AvailableStock availableStock;
+    private final Validator validator;
+    private final Outbox outbox;
+    private final MeterRegistry meterRegistry;
+    private final ConflictRetrier conflictRetrier;
+
+    private Counter reservedCounter;
+    private Counter outOfStockCounter;
+
+    @Value("${app.orders.batch.max-size:500}")
+    private int maxBatchSize;
+
+    @Value("${app.pagination.max-page-size:1000}")
+    private int maxPageSize;
+
+    @Value("${app.order-expiry.payment-timeout:30m}")
+    private Duration paymentTimeout;
+
+    @Value("${app.order-expiry.chunk-size:500}")
+    private int expiryChunkSize;
+
+    @Value("${app.order-expiry.max-chunks-per-run:20}")
+    private int expiryMaxChunksPerRun;
+
+    @PostConstruct
+    void registerMeters() {
+        //registered once, looking the counters up by name and tags on every order would allocate
+        //the ratio of the two outcomes is the rate at which orders lose the race for the last units of stock
+        reservedCounter = meterRegistry.counter("orders.stock.reservations", "outcome", "reserved");
+        outOfStockCounter = meterRegistry.counter("orders.stock.reservations", "outcome", "out_of_stock");
+    }
 
     @Override
     @Transactional
     public OrderDto createOrder(CreateOrderRequest orderRequest) {
-        boolean hasDuplicates = orderRequest.orderItems().stream()
-            .map(OrderItemRequest::productId)
-            .collect(Collectors.groupingBy(id -> id, Collectors.counting()))
-            .values().stream()
-            .anyMatch(count -> count > 1);
-
-        if (hasDuplicates) {
-            throw new IllegalArgumentException("Duplicate product IDs are not allowed in the order");
-        }
-
-        Order order = new Order();
-        order.setStatus(OrderStatus.PENDING);
-
-        var orderItems = orderRequest.orderItems().stream().map(orderItemRequest -> {
-            try {
-                //stock amount is updated atomically in the database we don't need to lock the product and slow down the process
-                //also there is a check in the database that prevents negative stock amounts
-                productRepository.updateStockAmount(orderItemRequest.productId(), orderItemRequest.quantity() * -1);
-            } catch (DataIntegrityViolationException e) {
-                throw new InsufficientStockException("Insufficient stock for product with id: " + orderItemRequest.productId());
+        List<OrderItemRequest> itemRequests = orderRequest.orderItems();
+        //every order passes here, so the items are processed without streams to keep the garbage per order low
+        if (OrderRequests.hasDuplicateProducts(itemRequests)) {
+            throw new IllegalArgumentException(DUPLICATE_PRODUCTS_MESSAGE);
+        }
+        List<OrderItemRequest> sortedItems = OrderRequests.sortedByProductId(itemRequests);
+        Long[] productIds = OrderRequests.productIds(sortedItems);
+        Integer[] quantities = OrderRequests.quantities(sortedItems);
+
+        //stock amounts of all items are reserved by the ledger in product ID order without locking the products up front
+        //it only decrements products with enough stock, so stock never goes negative and the rest is reported back
+        Set<Long> reservedProductIds = stockLedger.reserve(productIds, quantities);
+        Map<Long, Product> products = OrderRequests.productsById(productRepository.findAllById(Arrays.asList(productIds)));
+
+        for (Long productId : productIds) {
+            if (!products.containsKey(productId)) {
+                throw new EntityNotFoundException("Product not found with id: " + productId);
+            }
+        }
+
+        //throwing rolls back the reservations that did succeed
+        if (reservedProductIds.size() < productIds.length) {
+            List<Long> outOfStockProductIds = Arrays.stream(productIds).filter(id -> !reservedProductIds.contains(id)).toList();
+            countReservations(reservedProductIds.size(), outOfStockProductIds.size());
+            throw new InsufficientStockException(outOfStockProductIds);
+        }
+        countReservations(reservedProductIds.size(), 0);
+        productCache.evict(reservedProductIds);
+
+        Order savedOrder = orderRepository.save(OrderRequests.pendingOrder(itemRequests, products));
+        //the product stats are derived from the inserted items
+        orderRepository.flush();
+        productStatsRepository.addCreatedOrders(new Long[]{savedOrder.getId()});
+        orderExpiryRegistry.register(savedOrder.getId());
+        OrderDto createdOrder = availableStock.ofOrder(orderMapper.map(savedOrder));
+        outbox.append(OutboxEventType.ORDER_CREATED, createdOrder.id(), createdOrder);
+        return createdOrder;
+    }
+
+    @Override
+    @Transactional
+    @RetryOnConflict("create")
+    public List<CreateOrderResult> createOrders(CreateOrdersRequest ordersRequest) {
+        List<CreateOrderRequest> requests = ordersRequest.orders();
+        if (requests.size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " orders can be created at once");
+        }
+        CreateOrderResult[] results = new CreateOrderResult[requests.size()];
+
+        List<Integer> candidates = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            String error = validationError(requests.get(i));
+            if (error != null) {
+                results[i] = CreateOrderResult.failed(Outcome.INVALID, error);
+            } else {
+                candidates.add(i);
             }
+        }
 
-            var product = productRepository.findById(orderItemRequest.productId())
-                .orElseThrow(() -> new EntityNotFoundException("Product not found with id: " + orderItemRequest.productId()));
+        Set<Long> requestedProductIds = candidates.stream()
+                .flatMap(i -> requests.get(i).orderItems().stream())
+                .map(OrderItemRequest::productId)
+                .collect(Collectors.toSet());
+        Map<Long, Product> products = OrderRequests.productsById(productRepository.findAllById(requestedProductIds));
 
-            OrderItem orderItem = new OrderItem();
-            orderItem.setProduct(product);
-            orderItem.setQuantity(orderItemRequest.quantity());
-            orderItem.setOrder(order);
+        //the summed quantities of all orders are reserved in one statement, the orders of products that can't cover
+        //the whole batch then reserve those products one order after another, so that the earlier orders win
+        //both lock the products in ID order, the per-order reservations can still deadlock with the bulk reservation of
+        //another batch, which is retried as a whole (see RetryOnConflict)
+        Map<Long, Integer> totalQuantities = new TreeMap<>();
+        for (Iterator<Integer> it = candidates.iterator(); it.hasNext(); ) {
+            int i = it.next();
+            Optional<Long> missingProductId = requests.get(i).orderItems().stream()
+                    .map(OrderItemRequest::productId)
+                    .filter(id -> !products.containsKey(id))
+                    .findFirst();
+            if (missingProductId.isPresent()) {
+                results[i] = CreateOrderResult.failed(Outcome.PRODUCT_NOT_FOUND, "Product not found with id: " + missingProductId.get());
+                it.remove();
+            } else {
+                requests.get(i).orderItems().forEach(item -> totalQuantities.merge(item.productId(), item.quantity(), Integer::sum));
+            }
+        }
+        Set<Long> bulkReservedProductIds = totalQuantities.isEmpty() ? Set.of()
+                : stockLedger.reserve(totalQuantities.keySet().toArray(Long[]::new), totalQuantities.values().toArray(Integer[]::new));
 
-            return orderItem;
-        }).toList();
+        Set<Long> changedProductIds = new HashSet<>(bulkReservedProductIds);
+        int reservedItems = 0;
+        int outOfStockItems = 0;
+        Map<Long, Integer> unusedQuantities = new TreeMap<>();
+        List<Integer> accepted = new ArrayList<>(candidates.size());
+        for (int i : candidates) {
+            List<OrderItemRequest> items = requests.get(i).orderItems();
+            List<OrderItemRequest> contendedItems = OrderRequests.sortedByProductId(items).stream()
+                    .filter(item -> !bulkReservedProductIds.contains(item.productId()))
+                    .toList();
+            if (contendedItems.isEmpty()) {
+                reservedItems += items.size();
+                accepted.add(i);
+                continue;
+            }
 
-        order.setOrderItems(orderItems);
+            Set<Long> reserved = stockLedger.reserve(
+                    contendedItems.stream().map(OrderItemRequest::productId).toArray(Long[]::new),
+                    contendedItems.stream().map(OrderItemRequest::quantity).toArray(Integer[]::new));
+            changedProductIds.addAll(reserved);
+            reservedItems += items.size() - contendedItems.size() + reserved.size();
+            outOfStockItems += contendedItems.size() - reserved.size();
+            if (reserved.size() == contendedItems.size()) {
+                accepted.add(i);
+                continue;
+            }
 
-        return orderMapper.map(orderRepository.save(order));
+            //the order is rejected as a whole, so the stock already reserved for its other items is given back
+            items.stream()
+                    .filter(item -> bulkReservedProductIds.contains(item.productId()) || reserved.contains(item.productId()))
+                    .forEach(item -> unusedQuantities.merge(item.productId(), item.quantity(), Integer::sum));
+            List<Long> outOfStockProductIds = contendedItems.stream().map(OrderItemRequest::productId).filter(id -> !reserved.contains(id)).toList();
+            results[i] = CreateOrderResult.failed(Outcome.INSUFFICIENT_STOCK, new InsufficientStockException(outOfStockProductIds).getMessage());
+        }
+        countReservations(reservedItems, outOfStockItems);
+        if (!unusedQuantities.isEmpty()) {
+            stockLedger.release(unusedQuantities.keySet().toArray(Long[]::new), unusedQuantities.values().toArray(Integer[]::new));
+        }
+        productCache.evict(changedProductIds);
+
+        //the ids come from the pooled sequences, so the orders and their items are inserted in JDBC batches on flush
+        List<Order> orders = orderRepository.saveAll(accepted.stream().map(i -> OrderRequests.pendingOrder(requests.get(i).orderItems(), products)).toList());
+        if (!orders.isEmpty()) {
+            orderRepository.flush();
+            productStatsRepository.addCreatedOrders(orders.stream().map(Order::getId).toArray(Long[]::new));
+        }
+        List<OrderDto> createdOrderList = availableStock.ofOrders(orders.stream().map(orderMapper::map).toList());
+        Map<Long, OrderDto> createdOrders = new LinkedHashMap<>();
+        for (int k = 0; k < orders.size(); k++) {
+            Order order = orders.get(k);
+            orderExpiryRegistry.register(order.getId());
+            OrderDto createdOrder = createdOrderList.get(k);
+            createdOrders.put(order.getId(), createdOrder);
+            results[accepted.get(k)] = CreateOrderResult.created(createdOrder);
+        }
+        outbox.appendAll(OutboxEventType.ORDER_CREATED, createdOrders);
+        return Arrays.asList(results);
     }
 
     @Override
     @Transactional
+    @RetryOnConflict("cancel")
     public OrderDto cancelOrder(Long orderId) {
-        Order order = orderRepository.findById(orderId).orElseThrow(() -> new EntityNotFoundException("Order not found"));
+        Order order = orderRepository.findWithItemsById(orderId).orElseThrow(() -> new EntityNotFoundException("Order not found"));
 
-        if (order.getStatus() == OrderStatus.CANCELED || order.getStatus() == OrderStatus.PAID) {
+        if (order.getStatus() != OrderStatus.PENDING) {
             throw new IllegalStateException("Cannot cancel order in status " + order.getStatus());
         }
 
         //first we cancel the order - if it changes in the meantime the optimistic locking exception will be thrown, and we won't update the stock amounts
+        //the cancellation is then retried on the fresh state of the order (see RetryOnConflict)
+        //the order row is written right away, so that it is locked before the event (see Outbox)
         order.setStatus(OrderStatus.CANCELED);
-        orderRepository.save(order);
-
-        for (OrderItem item : order.getOrderItems()) {
-            productRepository.updateStockAmount(item.getProduct().getId(), item.getQuantity());
-        }
+        orderRepository.saveAndFlush(order);
 
+        productCache.evict(stockLedger.releaseOrders(new Long[]{orderId}));
+        productStatsRepository.addReleasedOrders(new Long[]{orderId});
+        orderExpiryRegistry.unregister(List.of(orderId));
 
-        return orderMapper.map(order);
+        OrderDto canceledOrder = availableStock.ofOrder(orderMapper.map(order));
+        outbox.append(OutboxEventType.ORDER_CANCELED, orderId, canceledOrder);
+        return canceledOrder;
     }
 
     @Override
     @Transactional
+    @RetryOnConflict("pay")
     public OrderDto setOrderPaid(Long orderId) {
-        Order order = orderRepository.findById(orderId)
+        Order order = orderRepository.findWithItemsById(orderId)
                 .orElseThrow(() -> new EntityNotFoundException("Order not found"));
 
         if (order.getStatus() != OrderStatus.PENDING) {
@@ -106,26 +300,190 @@ public class OrderServiceImpl implements OrderService {
 
         order.setStatus(OrderStatus.PAID);
         order.setPaidAt(LocalDateTime.now());
-        return orderMapper.map(order);
+        orderRepository.saveAndFlush(order);
+        productStatsRepository.addPaidOrders(new Long[]{orderId});
+        orderExpiryRegistry.unregister(List.of(orderId));
+
+        OrderDto paidOrder = availableStock.ofOrder(orderMapper.map(order));
+        outbox.append(OutboxEventType.ORDER_PAID, orderId, paidOrder);
+        return paidOrder;
+    }
+
+    @Override
+    @Transactional
+    @RetryOnConflict("pay")
+    public List<PayOrderResult> setOrdersPaid(PayOrdersRequest ordersRequest) {
+        List<Long> orderIds = ordersRequest.orderIds();
+        if (orderIds.size() > maxBatchSize) {
+            throw new IllegalArgumentException("At most " + maxBatchSize + " orders can be paid at once");
+        }
+
+        //a single conditional update instead of loading every order, the orders paid concurrently or meanwhile
+        //canceled or expired simply don't match
+        Long[] distinctIds = new LinkedHashSet<>(orderIds).toArray(Long[]::new);
+        List<Long> paidIds = orderRepository.payPendingOrders(distinctIds, LocalDateTime.now());
+
+        Map<Long, OrderDto> paidOrders = HashMap.newHashMap(paidIds.size());
+        if (!paidIds.isEmpty()) {
+            productStatsRepository.addPaidOrders(paidIds.toArray(Long[]::new));
+            orderExpiryRegistry.unregister(paidIds);
+            for (OrderDto order : OrderItemRows.toOrders(availableStock.ofOrderRows(orderRepository.findItemRowsByOrderIdIn(paidIds)))) {
+                paidOrders.put(order.id(), order);
+            }
+            outbox.appendAll(OutboxEventType.ORDER_PAID, paidOrders);
+        }
+        Set<Long> existingIds = paidIds.size() == distinctIds.length ? Set.of() : new HashSet<>(orderRepository.findExistingIds(distinctIds));
+
+        List<PayOrderResult> results = new ArrayList<>(orderIds.size());
+        Set<Long> reportedIds = HashSet.newHashSet(paidIds.size());
+        for (Long orderId : orderIds) {
+            //a repeated ID is paid by its first occurrence, like requests paying the same order one after another
+            OrderDto paidOrder = paidOrders.get(orderId);
+            if (paidOrder != null && reportedIds.add(orderId)) {
+                results.add(PayOrderResult.paid(paidOrder));
+            } else if (paidOrder != null || existingIds.contains(orderId)) {
+                results.add(PayOrderResult.failed(orderId, PayOrderResult.Outcome.NOT_PENDING, "Only pending orders can be paid for"));
+            } else {
+                results.add(PayOrderResult.failed(orderId, PayOrderResult.Outcome.NOT_FOUND, "Order not found"));
+            }
+        }
+        return results;
     }
 
     @Override
-    public List<OrderDto> getOrders() {
-        return orderRepository.findAll().stream().map(orderMapper::map).toList();
+    @Transactional(readOnly = true)
+    public KeysetPage<OrderDto> getOrders(Long afterId, int limit) {
+        var page = getOrderRows(afterId, limit);
+        return new KeysetPage<>(OrderItemRows.toOrders(page.items()), page.nextCursor());
     }
 
     @Override
-    @Transactional
-    public void releaseUnpaidOrders() {
-        List<Order> orders = orderRepository.findAllByStatusAndCreatedAtBefore(OrderStatus.PENDING, LocalDateTime.now().minusMinutes(30));
-
-        for (Order order : orders) {
-            try {
-                cancelOrder(order.getId());
-            } catch (OptimisticLockingFailureException e) {
-                log.error("Failed to process order {}: {}", order.getId(), e.getMessage());
+    @Transactional(readOnly = true)
+    public KeysetPage<OrderItemRow> getOrderRows(Long afterId, int limit) {
+        int pageSize = Math.min(limit, maxPageSize);
+        //the page of IDs is selected first, joining the items directly would make the limit count items instead of orders
+        var orderIds = orderRepository.findIdsAfter(afterId == null ? 0L : afterId, Limit.of(pageSize + 1));
+        if (orderIds.isEmpty()) {
+            return new KeysetPage<>(List.of(), null);
+        }
+        var pageIds = KeysetPage.of(orderIds, pageSize, Function.identity());
+        return new KeysetPage<>(availableStock.ofOrderRows(orderRepository.findItemRowsByOrderIdIn(pageIds.items())), pageIds.nextCursor());
+    }
+
+    @Override
+    public ExpiryRunResult releaseUnpaidOrders() {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime deadline = now.minus(paymentTimeout);
+        int expiredOrders = 0;
+        LocalDateTime oldestCreatedAt = null;
+
+        //every chunk runs in its own short transaction so that the locks are held only for the few statements of a chunk
+        //and the number of chunks per run is bounded, so a large backlog doesn't monopolize the connection pool
+        for (int chunk = 0; chunk < expiryMaxChunksPerRun; chunk++) {
+            ExpiredChunk expiredChunk = conflictRetrier.execute("expire", null,
+                    () -> transactionTemplate.execute(status -> expireOrderChunk(deadline)));
+            if (!expiredChunk.lockAcquired()) {
+                return expiredOrders == 0 ? ExpiryRunResult.notAcquired() : runResult(expiredOrders, false, oldestCreatedAt, now);
             }
+            if (oldestCreatedAt == null) {
+                oldestCreatedAt = expiredChunk.oldestCreatedAt();
+            }
+            expiredOrders += expiredChunk.expiredOrders();
+            if (expiredChunk.expiredOrders() < expiryChunkSize) {
+                return runResult(expiredOrders, false, oldestCreatedAt, now);
+            }
+        }
+        return runResult(expiredOrders, true, oldestCreatedAt, now);
+    }
+
+    private ExpiryRunResult runResult(int expiredOrders, boolean backlogRemaining, LocalDateTime oldestCreatedAt, LocalDateTime now) {
+        Duration lag = oldestCreatedAt == null ? Duration.ZERO : Duration.between(oldestCreatedAt.plus(paymentTimeout), now);
+        return new ExpiryRunResult(true, expiredOrders, backlogRemaining, lag);
+    }
+
+    private ExpiredChunk expireOrderChunk(LocalDateTime deadline) {
+        //only one node expires orders at a time, the others skip the run instead of competing for the same orders
+        if (!orderRepository.tryAdvisoryTransactionLock(ORDER_EXPIRY_LOCK_KEY)) {
+            return new ExpiredChunk(false, 0, null);
+        }
+
+        List<ExpirableOrder> orders = orderRepository.lockPendingOrdersCreatedBefore(deadline, expiryChunkSize);
+        if (orders.isEmpty()) {
+            return new ExpiredChunk(true, 0, null);
+        }
+
+        expireLockedOrders(orders.stream().map(ExpirableOrder::getId).toList());
+        return new ExpiredChunk(true, orders.size(), orders.get(0).getCreatedAt());
+    }
+
+    @Override
+    @Transactional
+    @RetryOnConflict("expire")
+    public ExpireOrdersResult expireOrders(Collection<Long> orderIds) {
+        Long[] ids = orderIds.toArray(Long[]::new);
+        List<Long> lockedOrderIds = orderRepository.lockPendingOrderIdsCreatedBefore(ids, LocalDateTime.now().minus(paymentTimeout));
+        if (!lockedOrderIds.isEmpty()) {
+            expireLockedOrders(lockedOrderIds);
+        }
+        if (lockedOrderIds.size() == ids.length) {
+            return new ExpireOrdersResult(lockedOrderIds, List.of());
+        }
+
+        //orders paid or canceled on another node are still registered here, their deadlines are dropped so they aren't retried
+        Set<Long> expired = new HashSet<>(lockedOrderIds);
+        Set<Long> pending = new HashSet<>(orderRepository.findPendingIds(ids));
+        List<Long> notPendingOrderIds = orderIds.stream().filter(id -> !expired.contains(id) && !pending.contains(id)).toList();
+        orderExpiryRegistry.unregister(notPendingOrderIds);
+        return new ExpireOrdersResult(lockedOrderIds, notPendingOrderIds);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public long countOverdueOrders() {
+        return orderRepository.countByStatusAndCreatedAtBefore(OrderStatus.PENDING, LocalDateTime.now().minus(paymentTimeout));
+    }
+
+    private void expireLockedOrders(List<Long> orderIds) {
+        //the orders are locked, so neither a cancellation nor a payment can change them until the transaction commits
+        Set<Long> releasedProductIds = stockLedger.releaseOrders(orderIds.toArray(Long[]::new));
+        orderRepository.updateStatus(orderIds, OrderStatus.EXPIRED);
+        productStatsRepository.addReleasedOrders(orderIds.toArray(Long[]::new));
+        productCache.evict(releasedProductIds);
+        orderExpiryRegistry.unregister(orderIds);
+        //the events carry the expired orders like the other order events
+        Map<Long, OrderDto> expiredOrders = new LinkedHashMap<>();
+        for (OrderDto order : OrderItemRows.toOrders(availableStock.ofOrderRows(orderRepository.findItemRowsByOrderIdIn(orderIds)))) {
+            expiredOrders.put(order.id(), order);
+        }
+        outbox.appendAll(OutboxEventType.ORDER_EXPIRED, expiredOrders);
+    }
+
+    private void countReservations(int reservedItems, int outOfStockItems) {
+        reservedCounter.increment(reservedItems);
+        if (outOfStockItems > 0) {
+            outOfStockCounter.increment(outOfStockItems);
         }
     }
 
+    private String validationError(CreateOrderRequest orderRequest) {
+        if (orderRequest == null) {
+            return "Order must not be null";
+        }
+        Set<ConstraintViolation<CreateOrderRequest>> violations = validator.validate(orderRequest);
+        if (!violations.isEmpty()) {
+            return violations.stream()
+                .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+        }
+        //the constraints let a missing list and missing items through
+        if (orderRequest.orderItems() == null || orderRequest.orderItems().stream().anyMatch(Objects::isNull)) {
+            return "Order items must not be null";
+        }
+        return OrderRequests.hasDuplicateProducts(orderRequest.orderItems()) ? DUPLICATE_PRODUCTS_MESSAGE : null;
+    }
+
+    private record ExpiredChunk(boolean lockAcquired, int expiredOrders, LocalDateTime oldestCreatedAt) {
+    }
+
 }
@@ -1,45 +1,84 @@
 package com.rohlikgroup.casestudy.service.impl;
 
+import com.rohlikgroup.casestudy.cache.ProductCache;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
 import com.rohlikgroup.casestudy.dto.ProductDto;
-import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.dto.ProductStatsDto;
 import com.rohlikgroup.casestudy.entity.Product;
 import com.rohlikgroup.casestudy.mapper.ProductMapper;
-import com.rohlikgroup.casestudy.repository.OrderRepository;
 import com.rohlikgroup.casestudy.repository.ProductRepository;
+import com.rohlikgroup.casestudy.repository.ProductStatsRepository;
 import com.rohlikgroup.casestudy.service.ProductService;
+import com.rohlikgroup.casestudy.service.outbox.Outbox;
+import com.rohlikgroup.casestudy.service.outbox.OutboxEventType;
+import com.rohlikgroup.casestudy.service.stock.AvailableStock;
+import com.rohlikgroup.casestudy.service.stock.StockLedger;
+import io.micrometer.core.annotation.Timed;
+import jakarta.annotation.PostConstruct;
 import jakarta.persistence.EntityNotFoundException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.List;
+import java.util.Map;
 
 @Service
+@Timed(value = "service.invocations", histogram = true)
 @RequiredArgsConstructor
 @Slf4j
 public class ProductServiceImpl implements ProductService {
 
     private final ProductRepository productRepository;
-    private final OrderRepository orderRepository;
+    private final ProductStatsRepository productStatsRepository;
     private final ProductMapper productMapper;
+    private final ProductCache productCache;
+    private final StockLedger stockLedger;
+    private final AvailableStock availableStock;
+    private final Outbox outbox;
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${app.pagination.max-page-size:1000}")
+    private int maxPageSize;
+
+    private TransactionTemplate readOnlyTransactionTemplate;
+
+    @PostConstruct
+    void createReadOnlyTransactionTemplate() {
+        readOnlyTransactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTransactionTemplate.setReadOnly(true);
+    }
 
     @Override
     @Transactional
     public ProductDto createProduct(ProductDto product) {
 
         var newProductEntity = productMapper.map(product);
-        return productMapper.map(productRepository.save(newProductEntity));
+        //the id comes from the sequence, the row is flushed right away because the ledger writes the stock to it directly
+        var createdProduct = productRepository.saveAndFlush(newProductEntity);
+        stockLedger.setStock(createdProduct.getId(), product.stockAmount());
+        productCache.evict(List.of(createdProduct.getId()));
+        ProductDto created = productMapper.map(createdProduct, product.stockAmount());
+        outbox.append(OutboxEventType.PRODUCT_CREATED, created.id(), created);
+        return created;
     }
 
     @Override
     @Transactional
     public void deleteProduct(Long productId) {
-        boolean isProductInActiveOrders = orderRepository.existsByOrderItemsProductIdAndStatusNotIn(productId, OrderStatus.getInactiveStatuses());
+        //the active orders are counted incrementally, so the check doesn't scan the orders of the product
+        boolean isProductInActiveOrders = productStatsRepository.findStats(productId).activeOrders() > 0;
         if (isProductInActiveOrders) {
             throw new IllegalStateException("Cannot delete product that is part of an active order.");
         }
         productRepository.deleteById(productId);
+        productCache.evict(List.of(productId));
+        outbox.append(OutboxEventType.PRODUCT_DELETED, productId, Map.of("id", productId));
     }
 
     @Override
@@ -50,21 +89,46 @@ public class ProductServiceImpl implements ProductService {
 
         existingProduct.setName(updatedProduct.name());
         existingProduct.setPrice(updatedProduct.price());
-        existingProduct.setStockAmount(updatedProduct.stockAmount());
 
-        return productMapper.map(productRepository.save(existingProduct));
+        var savedProduct = productRepository.save(existingProduct);
+        //the ledger writes the stock directly, the entity does not reflect it
+        stockLedger.setStock(productId, updatedProduct.stockAmount());
+        productCache.evict(List.of(productId));
+        ProductDto updated = productMapper.map(savedProduct, updatedProduct.stockAmount());
+        outbox.append(OutboxEventType.PRODUCT_UPDATED, productId, updated);
+        return updated;
+    }
+
+    @Override
+    public KeysetPage<ProductDto> getProducts(Long afterId, int limit) {
+        long after = afterId == null ? 0L : afterId;
+        int pageSize = Math.min(limit, maxPageSize);
+        //the cache loaders read the projections and their available stock in one read-only transaction, so both come
+        //from the same database, and a cache hit doesn't take a connection at all
+        return productCache.getProductPage(after, pageSize, () -> readOnlyTransactionTemplate.execute(status ->
+                KeysetPage.of(availableStock.ofProducts(productRepository.findDtosAfter(after, Limit.of(pageSize + 1))), pageSize, ProductDto::id)));
     }
 
     @Override
-    public List<ProductDto> getProducts() {
-        return productRepository.findAll().stream().map(productMapper::map).toList();
+    public KeysetPage<ProductDto> getProductBatch(Long afterId, int limit) {
+        int pageSize = Math.min(limit, maxPageSize);
+        return readOnlyTransactionTemplate.execute(status ->
+                KeysetPage.of(availableStock.ofProducts(productRepository.findDtosAfter(afterId == null ? 0L : afterId, Limit.of(pageSize + 1))), pageSize, ProductDto::id));
     }
 
     @Override
     public ProductDto getProduct(Long productId) {
-        Product product = productRepository.findById(productId)
-                .orElseThrow(() -> new EntityNotFoundException("Product not found with id: " + productId));
-        return productMapper.map(product);
+        return productCache.getProduct(productId, id -> readOnlyTransactionTemplate.execute(status ->
+                availableStock.ofProduct(productRepository.findDtoById(id)
+                        .orElseThrow(() -> new EntityNotFoundException("Product not found with id: " + id)))));
     }
-}
 
+    @Override
+    @Transactional(readOnly = true)
+    public ProductStatsDto getProductStats(Long productId) {
+        if (!productRepository.existsById(productId)) {
+            throw new EntityNotFoundException("Product not found with id: " + productId);
+        }
+        return productStatsRepository.findStats(productId);
+    }
+}
@@ -0,0 +1,68 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.repository.OutboxRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Records change events in the transaction of the change, so that an event is published exactly when its change
+ * commits. The {@link OutboxRelay} publishes them afterwards.
+ * <p>
+ * Appending an event locks its aggregate until the transaction ends. Callers that lock the aggregate's row as well must
+ * write the row first, as the expiry of orders does, otherwise the two locks can deadlock.
+ */
+@Component
+@RequiredArgsConstructor
+public class Outbox {
+
+    private final OutboxRepository outboxRepository;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Records an event in the current transaction.
+     *
+     * @param type        the type of the event
+     * @param aggregateId the ID of the changed aggregate
+     * @param payload     the payload, serialized to JSON
+     */
+    public void append(OutboxEventType type, Long aggregateId, Object payload) {
+        appendAll(type, Map.of(aggregateId, payload));
+    }
+
+    /**
+     * Records events of the same type in the current transaction.
+     *
+     * @param type     the type of the events
+     * @param payloads the payloads, serialized to JSON, by the ID of their aggregate
+     */
+    public void appendAll(OutboxEventType type, Map<Long, ?> payloads) {
+        if (payloads.isEmpty()) {
+            return;
+        }
+        String[] aggregateTypes = new String[payloads.size()];
+        Long[] aggregateIds = new Long[payloads.size()];
+        String[] eventTypes = new String[payloads.size()];
+        String[] jsonPayloads = new String[payloads.size()];
+        int i = 0;
+        for (Map.Entry<Long, ?> entry : payloads.entrySet()) {
+            aggregateTypes[i] = type.aggregateType();
+            aggregateIds[i] = entry.getKey();
+            eventTypes[i] = type.name();
+            jsonPayloads[i] = toJson(entry.getValue());
+            i++;
+        }
+        outboxRepository.append(aggregateTypes, aggregateIds, eventTypes, jsonPayloads);
+    }
+
+    private String toJson(Object payload) {
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize the event payload " + payload, e);
+        }
+    }
+}
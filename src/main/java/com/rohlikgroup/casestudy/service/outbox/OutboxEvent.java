@@ -0,0 +1,22 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import java.time.LocalDateTime;
+
+/**
+ * A change event stored in the outbox.
+ *
+ * @param id            increasing per aggregate in the order of the changes, consumers can use it to drop duplicates
+ * @param aggregateType the type of the changed aggregate, see {@link OutboxEventType#aggregateType()}
+ * @param aggregateId   the ID of the changed aggregate
+ * @param eventType     the name of an {@link OutboxEventType}
+ * @param payload       the JSON payload
+ * @param createdAt     when the change happened
+ */
+public record OutboxEvent(long id,
+                          String aggregateType,
+                          long aggregateId,
+                          String eventType,
+                          String payload,
+                          LocalDateTime createdAt) {
+
+}
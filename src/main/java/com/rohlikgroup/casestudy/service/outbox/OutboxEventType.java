@@ -0,0 +1,22 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+public enum OutboxEventType {
+
+    ORDER_CREATED("order"),
+    ORDER_CANCELED("order"),
+    ORDER_PAID("order"),
+    ORDER_EXPIRED("order"),
+    PRODUCT_CREATED("product"),
+    PRODUCT_UPDATED("product"),
+    PRODUCT_DELETED("product");
+
+    private final String aggregateType;
+
+    OutboxEventType(String aggregateType) {
+        this.aggregateType = aggregateType;
+    }
+
+    public String aggregateType() {
+        return aggregateType;
+    }
+}
@@ -0,0 +1,17 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import java.util.List;
+
+/**
+ * Delivers outbox events to consumers, picked by {@code app.outbox.publisher}.
+ */
+public interface OutboxPublisher {
+
+    /**
+     * Publishes the events in the given order. When this throws, the whole batch is published again later, so some
+     * events may be delivered twice.
+     *
+     * @param events the events ordered by ID
+     */
+    void publish(List<OutboxEvent> events);
+}
@@ -0,0 +1,79 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import com.rohlikgroup.casestudy.repository.OutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Publishes the outbox in batches of {@code app.outbox.relay.batch-size} events, oldest first, and deletes what was
+ * published. Delivery is at least once: a batch whose deletion fails to commit is published again.
+ * <p>
+ * Only one node relays at a time, so the events of an aggregate are published in the order they were recorded.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.relay.enabled", havingValue = "true", matchIfMissing = true)
+@Slf4j
+public class OutboxRelay {
+
+    private static final long OUTBOX_RELAY_LOCK_KEY = 0x6F7574626F78L;
+
+    private final OutboxRepository outboxRepository;
+    private final OutboxPublisher outboxPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final Counter publishedCounter;
+
+    public OutboxRelay(OutboxRepository outboxRepository,
+                       OutboxPublisher outboxPublisher,
+                       TransactionTemplate transactionTemplate,
+                       MeterRegistry meterRegistry,
+                       @Value("${app.outbox.relay.batch-size:500}") int batchSize,
+                       @Value("${app.outbox.relay.max-batches-per-run:20}") int maxBatchesPerRun) {
+        this.outboxRepository = outboxRepository;
+        this.outboxPublisher = outboxPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.publishedCounter = Counter.builder("outbox.published")
+                .description("Outbox events published by the relay")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${app.outbox.relay.interval-ms:200}")
+    public void relay() {
+        try {
+            for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+                Integer published = transactionTemplate.execute(status -> relayBatch());
+                if (published == null || published < batchSize) {
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            //the events stay in the outbox and the next run publishes them again
+            log.warn("Failed to relay outbox events: {}", e.getMessage());
+        }
+    }
+
+    private int relayBatch() {
+        if (!outboxRepository.tryAdvisoryTransactionLock(OUTBOX_RELAY_LOCK_KEY)) {
+            return 0;
+        }
+        List<OutboxEvent> events = outboxRepository.findNextBatch(batchSize);
+        if (events.isEmpty()) {
+            return 0;
+        }
+        outboxPublisher.publish(events);
+        outboxRepository.delete(events.stream().map(OutboxEvent::id).toArray(Long[]::new));
+        publishedCounter.increment(events.size());
+        return events.size();
+    }
+}
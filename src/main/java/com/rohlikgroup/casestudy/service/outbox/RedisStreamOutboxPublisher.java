@@ -0,0 +1,62 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisStreamCommands.XAddOptions;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes outbox events to one Redis stream per aggregate type, {@code events:order} and {@code events:product}.
+ * A batch is sent as a single pipeline, Redis appends the entries in the order they were sent. The fields are plain
+ * strings, so consumers in any language can read them.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.publisher", havingValue = "redis-stream", matchIfMissing = true)
+public class RedisStreamOutboxPublisher implements OutboxPublisher {
+
+    static final String STREAM_KEY_PREFIX = "events:";
+
+    private final StringRedisTemplate redisTemplate;
+    private final XAddOptions addOptions;
+
+    public RedisStreamOutboxPublisher(StringRedisTemplate redisTemplate,
+                                      @Value("${app.outbox.stream.max-length:1000000}") long maxLength) {
+        this.redisTemplate = redisTemplate;
+        //approximate trimming lets Redis drop whole nodes of the stream, which is much cheaper than exact trimming
+        this.addOptions = XAddOptions.maxlen(maxLength).approximateTrimming(true);
+    }
+
+    @Override
+    public void publish(List<OutboxEvent> events) {
+        redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                StreamOperations<String, String, String> streams = ((RedisOperations<String, String>) operations).opsForStream();
+                for (OutboxEvent event : events) {
+                    streams.add(STREAM_KEY_PREFIX + event.aggregateType(), fields(event), addOptions);
+                }
+                return null;
+            }
+        });
+    }
+
+    private static Map<String, String> fields(OutboxEvent event) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        fields.put("id", Long.toString(event.id()));
+        fields.put("type", event.eventType());
+        fields.put("aggregateId", Long.toString(event.aggregateId()));
+        fields.put("payload", event.payload());
+        fields.put("createdAt", event.createdAt().toString());
+        return fields;
+    }
+}
@@ -0,0 +1,193 @@
+package com.rohlikgroup.casestudy.service.payment;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
+import com.rohlikgroup.casestudy.service.OrderService;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityNotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Groups the payment confirmations of single orders that arrive close together into batches paid by
+ * {@link OrderService#setOrdersPaid}, so that a burst of payment webhooks costs one transaction and one update
+ * statement per batch instead of loading and saving every order on its own.
+ * <p>
+ * The first waiting confirmation opens a batch, which collects the confirmations arriving within
+ * {@code app.orders.payment-batching.window}, up to {@code app.orders.batch.max-size}. Confirmations arriving while a
+ * batch is paid wait for the next one, so batches grow with the load while a lone confirmation is delayed by at most
+ * the window. Every caller gets the outcome of its own order, with the same exceptions as
+ * {@link OrderService#setOrderPaid}. The sizes of the batches are recorded in {@code orders.payment.batch.size}.
+ * <p>
+ * A caller waits for its batch at most {@code app.orders.payment-batching.wait-timeout}. Should the dispatcher die, the
+ * waiting payments fail and later payments are made directly.
+ */
+@Component
+@Slf4j
+public class PaymentCoalescer {
+
+    private final OrderService orderService;
+    private final boolean enabled;
+    private final Duration window;
+    private final Duration waitTimeout;
+    private final int maxBatchSize;
+    private final DistributionSummary batchSizes;
+    private final BlockingQueue<PendingPayment> queue = new LinkedBlockingQueue<>();
+
+    private volatile boolean running;
+    private Thread dispatcher;
+
+    public PaymentCoalescer(OrderService orderService,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.orders.payment-batching.enabled:true}") boolean enabled,
+                            @Value("${app.orders.payment-batching.window:2ms}") Duration window,
+                            @Value("${app.orders.payment-batching.wait-timeout:10s}") Duration waitTimeout,
+                            @Value("${app.orders.batch.max-size:500}") int maxBatchSize) {
+        this.orderService = orderService;
+        this.enabled = enabled;
+        this.window = window;
+        this.waitTimeout = waitTimeout;
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizes = DistributionSummary.builder("orders.payment.batch.size")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        if (enabled) {
+            running = true;
+            dispatcher = Thread.ofVirtual().name("payment-coalescer").start(this::dispatch);
+        }
+    }
+
+    @PreDestroy
+    void stop() throws InterruptedException {
+        running = false;
+        if (dispatcher != null) {
+            dispatcher.interrupt();
+            dispatcher.join(TimeUnit.SECONDS.toMillis(5));
+        }
+        failAll(drain(), new IllegalStateException("The application is shutting down"));
+    }
+
+    /**
+     * Marks a pending order as paid as part of the next batch.
+     *
+     * @param orderId the ID of the order to pay
+     * @return the paid order
+     */
+    public OrderDto pay(Long orderId) {
+        //a caller inside a transaction must see its own changes and have the payment join its transaction
+        if (!running || TransactionSynchronizationManager.isActualTransactionActive()) {
+            return orderService.setOrderPaid(orderId);
+        }
+        PendingPayment payment = new PendingPayment(orderId, new CompletableFuture<>());
+        queue.add(payment);
+        //stopped in the meantime, the payment is either failed by the drain on shutdown or taken back here
+        if (!running && queue.remove(payment)) {
+            return orderService.setOrderPaid(orderId);
+        }
+        PayOrderResult result;
+        try {
+            result = payment.result().get(waitTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException cause ? cause : new IllegalStateException(e.getCause());
+        } catch (TimeoutException e) {
+            //a payment still in the queue is taken back and never paid, one already in a batch may still be
+            queue.remove(payment);
+            throw new IllegalStateException("Timed out waiting for the payment of order " + orderId + " to be confirmed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queue.remove(payment);
+            throw new IllegalStateException("Interrupted while waiting for the payment of order " + orderId, e);
+        }
+        return switch (result.outcome()) {
+            case PAID -> result.order();
+            case NOT_PENDING -> throw new IllegalStateException(result.error());
+            case NOT_FOUND -> throw new EntityNotFoundException(result.error());
+        };
+    }
+
+    private void dispatch() {
+        List<PendingPayment> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running) {
+                try {
+                    batch.add(queue.take());
+                    long deadline = System.nanoTime() + window.toNanos();
+                    while (batch.size() < maxBatchSize) {
+                        PendingPayment next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failAll(batch, new IllegalStateException("The application is shutting down"));
+                    return;
+                }
+                payBatch(batch);
+                batch.clear();
+            }
+        } catch (Throwable e) {
+            //new payments are made directly from now on, the ones already queued would otherwise wait for nothing
+            running = false;
+            log.error("The payment dispatcher stopped, paying orders one by one", e);
+            IllegalStateException failure = new IllegalStateException("The payment dispatcher stopped", e);
+            failAll(batch, failure);
+            failAll(drain(), failure);
+            if (e instanceof Error error) {
+                throw error;
+            }
+        }
+    }
+
+    private void payBatch(List<PendingPayment> batch) {
+        batchSizes.record(batch.size());
+        List<Long> orderIds = new ArrayList<>(batch.size());
+        for (PendingPayment payment : batch) {
+            orderIds.add(payment.orderId());
+        }
+        try {
+            List<PayOrderResult> results = orderService.setOrdersPaid(new PayOrdersRequest(orderIds));
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            //the whole batch failed, e.g. the database is unreachable, every caller gets the error
+            log.warn("Failed to pay a batch of {} orders: {}", batch.size(), e.getMessage());
+            failAll(batch, e);
+        }
+    }
+
+    private List<PendingPayment> drain() {
+        List<PendingPayment> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        return remaining;
+    }
+
+    private static void failAll(List<PendingPayment> payments, RuntimeException e) {
+        payments.forEach(payment -> payment.result().completeExceptionally(e));
+    }
+
+    private record PendingPayment(Long orderId, CompletableFuture<PayOrderResult> result) {
+    }
+}
@@ -0,0 +1,111 @@
+package com.rohlikgroup.casestudy.service.retry;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs transactions that can lose a race on a row, an optimistic lock on the {@code @Version} of an order or a lock
+ * or deadlock detected by the database, and runs them again in a fresh transaction when they do. The retry re-reads
+ * the state, so a transition that is no longer valid fails with its usual error instead of a conflict.
+ * <p>
+ * Retries back off exponentially with full jitter, so that the transactions that collided don't collide again in
+ * lockstep, and give up after {@code app.conflict-retry.max-attempts}. Transactions of the same order on this node are
+ * additionally serialized by a striped lock, so conflicts only remain between nodes. The lock is only waited for up to
+ * {@code app.conflict-retry.lock-timeout}, after which the attempt runs anyway and relies on the optimistic lock.
+ * <p>
+ * The number of retries and give-ups is published as {@code conflict.retries} and {@code conflict.retry.exhausted},
+ * tagged by operation.
+ */
+@Component
+@Slf4j
+public class ConflictRetrier {
+
+    private final MeterRegistry meterRegistry;
+    private final int maxAttempts;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final Duration lockTimeout;
+    private final StripedLocks locks;
+
+    public ConflictRetrier(MeterRegistry meterRegistry,
+                           @Value("${app.conflict-retry.max-attempts:4}") int maxAttempts,
+                           @Value("${app.conflict-retry.initial-backoff:10ms}") Duration initialBackoff,
+                           @Value("${app.conflict-retry.max-backoff:200ms}") Duration maxBackoff,
+                           @Value("${app.conflict-retry.lock-stripes:64}") int lockStripes,
+                           @Value("${app.conflict-retry.lock-timeout:500ms}") Duration lockTimeout) {
+        this.meterRegistry = meterRegistry;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffNanos = initialBackoff.toNanos();
+        this.maxBackoffNanos = maxBackoff.toNanos();
+        this.lockTimeout = lockTimeout;
+        this.locks = new StripedLocks(lockStripes);
+    }
+
+    /**
+     * Runs the action, which must start its own transaction, until it doesn't fail on a conflict or the attempts run out.
+     *
+     * @param operation the name of the operation in the metrics
+     * @param orderId   the ID of the order to serialize the action by, {@code null} for none
+     * @param action    the transactional action
+     * @return the result of the action
+     */
+    public <T> T execute(String operation, Long orderId, Supplier<T> action) {
+        //inside a surrounding transaction the failed one is marked rollback-only, only the caller can start over
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return action.get();
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return orderId == null ? action.get() : runLocked(orderId, action);
+            } catch (ConcurrencyFailureException e) {
+                if (attempt >= maxAttempts) {
+                    meterRegistry.counter("conflict.retry.exhausted", "operation", operation).increment();
+                    log.warn("Giving up {} of order {} after {} conflicting attempts", operation, orderId, attempt);
+                    throw e;
+                }
+                meterRegistry.counter("conflict.retries", "operation", operation).increment();
+                log.debug("Retrying {} of order {} after a conflict: {}", operation, orderId, e.getMessage());
+                backOff(attempt, e);
+            }
+        }
+    }
+
+    private <T> T runLocked(Long orderId, Supplier<T> action) {
+        ReentrantLock lock = locks.lockFor(orderId);
+        boolean locked = false;
+        try {
+            locked = lock.tryLock(lockTimeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            return action.get();
+        } finally {
+            if (locked) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void backOff(int attempt, ConcurrencyFailureException conflict) {
+        //full jitter: a random delay up to the exponentially growing cap
+        long cap = Math.min(maxBackoffNanos, initialBackoffNanos << Math.min(attempt - 1, 30));
+        long delay = cap <= 0 ? 0 : ThreadLocalRandom.current().nextLong(cap + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw conflict;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.rohlikgroup.casestudy.service.retry;
+
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * Applies {@link ConflictRetrier} to methods annotated with {@link RetryOnConflict}.
+ */
+@Aspect
+@Component
+//runs around the transaction advice, which has the lowest precedence, so every attempt gets a fresh transaction
+@Order(Ordered.LOWEST_PRECEDENCE - 1)
+@RequiredArgsConstructor
+public class ConflictRetryAspect {
+
+    private final ConflictRetrier conflictRetrier;
+
+    @Around("@annotation(retryOnConflict)")
+    public Object retry(ProceedingJoinPoint joinPoint, RetryOnConflict retryOnConflict) {
+        Object[] args = joinPoint.getArgs();
+        Long orderId = args.length > 0 && args[0] instanceof Long id ? id : null;
+        return conflictRetrier.execute(retryOnConflict.value(), orderId, () -> {
+            try {
+                return joinPoint.proceed();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        });
+    }
+}
@@ -0,0 +1,23 @@
+package com.rohlikgroup.casestudy.service.retry;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Retries the annotated transactional method with {@link ConflictRetrier} when it fails on a concurrent modification.
+ * When the first parameter is a {@code Long}, it is taken as the ID of the order and concurrent calls for the same order
+ * on this node are serialized.
+ */
+@Documented
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RetryOnConflict {
+
+    /**
+     * @return the name of the operation in the retry metrics
+     */
+    String value();
+}
@@ -0,0 +1,29 @@
+package com.rohlikgroup.casestudy.service.retry;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by any number of keys, so that locking by key needs neither a map nor cleanup.
+ * Keys sharing a stripe occasionally wait for each other.
+ */
+final class StripedLocks {
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    StripedLocks(int stripes) {
+        //rounded up to a power of two, so the stripe is selected with a mask
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        mask = size - 1;
+    }
+
+    ReentrantLock lockFor(long key) {
+        //spreads sequential IDs, whose low bits alone would be unevenly distributed over a small table
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return locks[(int) (hash >>> 32) & mask];
+    }
+}
@@ -0,0 +1,85 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces the row stock read with products by the stock available to order, as the active {@link StockLedger} sees
+ * it. All products of a page or order are looked up at once, and nothing is read in the row inventory mode.
+ */
+@Component
+@RequiredArgsConstructor
+public class AvailableStock {
+
+    private final StockLedger stockLedger;
+
+    public ProductDto ofProduct(ProductDto product) {
+        return ofProducts(List.of(product)).get(0);
+    }
+
+    public List<ProductDto> ofProducts(List<ProductDto> products) {
+        Map<Long, Integer> rowStockAmounts = new HashMap<>();
+        products.forEach(product -> rowStockAmounts.put(product.id(), product.stockAmount()));
+        Map<Long, Integer> available = find(rowStockAmounts);
+        return available.isEmpty() ? products : products.stream().map(product -> withStock(product, available)).toList();
+    }
+
+    public OrderDto ofOrder(OrderDto order) {
+        return ofOrders(List.of(order)).get(0);
+    }
+
+    public List<OrderDto> ofOrders(List<OrderDto> orders) {
+        Map<Long, Integer> rowStockAmounts = new HashMap<>();
+        for (OrderDto order : orders) {
+            for (OrderItemDto item : order.orderItems()) {
+                if (item.product() != null) {
+                    rowStockAmounts.put(item.product().id(), item.product().stockAmount());
+                }
+            }
+        }
+        Map<Long, Integer> available = find(rowStockAmounts);
+        if (available.isEmpty()) {
+            return orders;
+        }
+        return orders.stream()
+                .map(order -> new OrderDto(order.id(), order.status(), order.orderItems().stream()
+                        .map(item -> item.product() == null ? item : new OrderItemDto(item.id(), withStock(item.product(), available), item.quantity()))
+                        .toList(), order.paidAt()))
+                .toList();
+    }
+
+    public List<OrderItemRow> ofOrderRows(List<OrderItemRow> rows) {
+        Map<Long, Integer> rowStockAmounts = new HashMap<>();
+        for (OrderItemRow row : rows) {
+            if (row.productId() != null) {
+                rowStockAmounts.put(row.productId(), row.stockAmount());
+            }
+        }
+        Map<Long, Integer> available = find(rowStockAmounts);
+        if (available.isEmpty()) {
+            return rows;
+        }
+        return rows.stream()
+                .map(row -> row.productId() == null || !available.containsKey(row.productId()) ? row
+                        : new OrderItemRow(row.orderId(), row.status(), row.paidAt(), row.itemId(), row.quantity(),
+                        row.productId(), row.productName(), available.get(row.productId()), row.price()))
+                .toList();
+    }
+
+    private Map<Long, Integer> find(Map<Long, Integer> rowStockAmounts) {
+        return rowStockAmounts.isEmpty() ? Map.of() : stockLedger.findAvailableStock(rowStockAmounts);
+    }
+
+    private static ProductDto withStock(ProductDto product, Map<Long, Integer> available) {
+        Integer stockAmount = available.get(product.id());
+        return stockAmount == null ? product : new ProductDto(product.id(), product.name(), stockAmount, product.price());
+    }
+}
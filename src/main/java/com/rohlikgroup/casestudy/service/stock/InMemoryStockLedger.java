@@ -0,0 +1,201 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import com.rohlikgroup.casestudy.repository.StockJournalRepository;
+import com.rohlikgroup.casestudy.util.TransactionUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the available stock of every product in memory and reserves it with a compare-and-set, so that concurrent
+ * orders of the same product never wait for a row lock.
+ * <p>
+ * Every change is appended to {@code stock_journal} in the caller's transaction, which makes the journal exactly as
+ * durable as the orders themselves. A scheduled flush folds the committed journal into {@code products.stock_amount}
+ * in coalesced batches, and the state is rebuilt from product rows plus journal on startup.
+ * <p>
+ * Decrements are applied to memory immediately and given back when the transaction rolls back, increments only after
+ * it commits. Memory therefore never holds stock that is not committed, and orders can't oversell.
+ * The state is local to the instance, so this mode must only run on a single node.
+ */
+@Component
+@ConditionalOnProperty(name = "app.inventory.mode", havingValue = "memory")
+@RequiredArgsConstructor
+@Slf4j
+public class InMemoryStockLedger implements StockLedger {
+
+    private final StockJournalRepository stockJournalRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    private final Map<Long, AtomicLong> stockAmounts = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void rebuild() {
+        stockJournalRepository.findAllStockAmounts().forEach((productId, stockAmount) -> stockAmounts.put(productId, new AtomicLong(stockAmount)));
+        log.info("Loaded the stock of {} products into memory", stockAmounts.size());
+    }
+
+    @Override
+    public Set<Long> reserve(Long[] productIds, Integer[] quantities) {
+        Set<Long> reserved = new HashSet<>();
+        List<Long> journalProductIds = new ArrayList<>(productIds.length);
+        List<Integer> journalDeltas = new ArrayList<>(productIds.length);
+        for (int i = 0; i < productIds.length; i++) {
+            AtomicLong stockAmount = stockAmount(productIds[i]);
+            if (stockAmount != null && tryDecrement(stockAmount, quantities[i])) {
+                reserved.add(productIds[i]);
+                journalProductIds.add(productIds[i]);
+                journalDeltas.add(-quantities[i]);
+            }
+        }
+        if (!journalProductIds.isEmpty()) {
+            TransactionUtils.afterRollback(() -> add(journalProductIds, journalDeltas, -1));
+            stockJournalRepository.append(journalProductIds.toArray(Long[]::new), journalDeltas.toArray(Integer[]::new));
+        }
+        return reserved;
+    }
+
+    @Override
+    public Set<Long> releaseOrders(Long[] orderIds) {
+        Map<Long, Integer> quantities = stockJournalRepository.findQuantitiesOfOrders(orderIds);
+        if (quantities.isEmpty()) {
+            return Set.of();
+        }
+        List<Long> productIds = new ArrayList<>(quantities.keySet());
+        release(productIds, productIds.stream().map(quantities::get).toList());
+        return quantities.keySet();
+    }
+
+    @Override
+    public void release(Long[] productIds, Integer[] quantities) {
+        release(List.of(productIds), List.of(quantities));
+    }
+
+    /**
+     * Sets the stock by journaling the difference to the stock currently in memory. Reservations that are still in
+     * flight keep their effect, so the stock settles at {@code stockAmount} once they commit.
+     */
+    @Override
+    public void setStock(Long productId, int stockAmount) {
+        AtomicLong current = stockAmount(productId);
+        if (current == null) {
+            throw new IllegalStateException("Product not found with id: " + productId);
+        }
+        int delta = Math.toIntExact(stockAmount - current.get());
+        if (delta == 0) {
+            return;
+        }
+
+        List<Long> productIds = List.of(productId);
+        List<Integer> deltas = List.of(delta);
+        if (delta < 0) {
+            //a decrement may fail when stock got reserved in the meantime, the stock is then set to zero
+            long taken = takeUpTo(current, -delta);
+            deltas = List.of(Math.toIntExact(-taken));
+            List<Integer> compensation = deltas;
+            TransactionUtils.afterRollback(() -> add(productIds, compensation, -1));
+        } else {
+            TransactionUtils.afterCommit(() -> add(productIds, List.of(delta), 1));
+        }
+        stockJournalRepository.append(productIds.toArray(Long[]::new), deltas.toArray(Integer[]::new));
+    }
+
+    /**
+     * Answers from memory, which holds the product rows plus the journal not yet flushed to them.
+     */
+    @Override
+    public Map<Long, Integer> findAvailableStock(Map<Long, Integer> rowStockAmounts) {
+        Map<Long, Integer> available = HashMap.newHashMap(rowStockAmounts.size());
+        for (Long productId : rowStockAmounts.keySet()) {
+            AtomicLong stockAmount = stockAmounts.get(productId);
+            if (stockAmount != null) {
+                available.put(productId, Math.toIntExact(stockAmount.get()));
+            }
+        }
+        return available;
+    }
+
+    @Scheduled(fixedDelayString = "${app.inventory.memory.flush-interval-ms:500}")
+    public void flush() {
+        try {
+            Integer flushedProducts = transactionTemplate.execute(status -> stockJournalRepository.flush());
+            if (flushedProducts != null && flushedProducts > 0) {
+                log.debug("Flushed the stock journal of {} products", flushedProducts);
+            }
+        } catch (RuntimeException e) {
+            //the journal stays in place and the next flush retries
+            log.error("Failed to flush the stock journal", e);
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    private AtomicLong stockAmount(Long productId) {
+        AtomicLong stockAmount = stockAmounts.get(productId);
+        if (stockAmount != null) {
+            return stockAmount;
+        }
+        //products created after startup, the committed row and journal already include every change to them
+        //loaded outside computeIfAbsent, which would pin a virtual thread to its carrier for the query
+        Long loaded = stockJournalRepository.findStockAmount(productId);
+        if (loaded == null) {
+            return null;
+        }
+        AtomicLong created = new AtomicLong(loaded);
+        AtomicLong previous = stockAmounts.putIfAbsent(productId, created);
+        return previous != null ? previous : created;
+    }
+
+    private void release(List<Long> productIds, List<Integer> deltas) {
+        stockJournalRepository.append(productIds.toArray(Long[]::new), deltas.toArray(Integer[]::new));
+        TransactionUtils.afterCommit(() -> add(productIds, deltas, 1));
+    }
+
+    private void add(List<Long> productIds, List<Integer> deltas, int sign) {
+        for (int i = 0; i < productIds.size(); i++) {
+            AtomicLong stockAmount = stockAmounts.get(productIds.get(i));
+            //a product missing from memory gets loaded with the committed change included
+            if (stockAmount != null) {
+                stockAmount.addAndGet((long) sign * deltas.get(i));
+            }
+        }
+    }
+
+    private static boolean tryDecrement(AtomicLong stockAmount, int quantity) {
+        long current;
+        do {
+            current = stockAmount.get();
+            if (current < quantity) {
+                return false;
+            }
+        } while (!stockAmount.compareAndSet(current, current - quantity));
+        return true;
+    }
+
+    private static long takeUpTo(AtomicLong stockAmount, long quantity) {
+        long current;
+        long taken;
+        do {
+            current = stockAmount.get();
+            taken = Math.min(current, quantity);
+        } while (!stockAmount.compareAndSet(current, current - taken));
+        return taken;
+    }
+}
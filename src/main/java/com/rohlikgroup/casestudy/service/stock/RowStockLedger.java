@@ -0,0 +1,50 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import com.rohlikgroup.casestudy.repository.ProductRepository;
+import com.rohlikgroup.casestudy.repository.ProductStockShardRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the whole stock of a product on its product row. Every reservation of a product locks that one row.
+ */
+@Component
+@ConditionalOnProperty(name = "app.inventory.mode", havingValue = "row", matchIfMissing = true)
+@RequiredArgsConstructor
+public class RowStockLedger implements StockLedger {
+
+    private final ProductRepository productRepository;
+    private final ProductStockShardRepository productStockShardRepository;
+
+    @Override
+    public Set<Long> reserve(Long[] productIds, Integer[] quantities) {
+        return new HashSet<>(productRepository.reserveStock(productIds, quantities));
+    }
+
+    @Override
+    public Set<Long> releaseOrders(Long[] orderIds) {
+        return new HashSet<>(productRepository.releaseStockOfOrders(orderIds));
+    }
+
+    @Override
+    public void release(Long[] productIds, Integer[] quantities) {
+        productRepository.releaseStock(productIds, quantities);
+    }
+
+    @Override
+    public void setStock(Long productId, int stockAmount) {
+        //folds back shards left over from the sharded mode
+        productStockShardRepository.deleteShards(productId);
+        productRepository.setStockAmount(productId, stockAmount);
+    }
+
+    @Override
+    public Map<Long, Integer> findAvailableStock(Map<Long, Integer> rowStockAmounts) {
+        return Map.of();
+    }
+}
@@ -0,0 +1,147 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import com.rohlikgroup.casestudy.repository.ProductRepository;
+import com.rohlikgroup.casestudy.repository.ProductStockShardRepository;
+import com.rohlikgroup.casestudy.repository.ProductStockShardRepository.ShardStock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits the stock of a product across {@code app.inventory.shard-count} rows of {@code product_stock_shards}, so that
+ * concurrent reservations of a hot product lock different rows instead of queueing on its product row.
+ * <p>
+ * A reservation takes the whole quantity from one random shard with enough stock, skipping shards locked by concurrent
+ * reservations. Products that could not be reserved that way fall back to their product row (products not sharded yet,
+ * or stock released while all shards were locked) and finally to locking the product row and all shards and collecting
+ * the quantity across them.
+ */
+@Component
+@ConditionalOnProperty(name = "app.inventory.mode", havingValue = "sharded")
+@Slf4j
+public class ShardedStockLedger implements StockLedger {
+
+    private final ProductRepository productRepository;
+    private final ProductStockShardRepository productStockShardRepository;
+    private final int shardCount;
+
+    public ShardedStockLedger(ProductRepository productRepository,
+                              ProductStockShardRepository productStockShardRepository,
+                              @Value("${app.inventory.shard-count:8}") int shardCount) {
+        this.productRepository = productRepository;
+        this.productStockShardRepository = productStockShardRepository;
+        this.shardCount = shardCount;
+    }
+
+    @Override
+    public Set<Long> reserve(Long[] productIds, Integer[] quantities) {
+        Set<Long> reserved = new HashSet<>(productStockShardRepository.reserveFromRandomShards(productIds, quantities));
+        if (reserved.size() == productIds.length) {
+            return reserved;
+        }
+
+        Map<Long, Integer> remaining = remaining(productIds, quantities, reserved);
+        reserved.addAll(productRepository.reserveStock(remaining.keySet().toArray(Long[]::new), remaining.values().toArray(Integer[]::new)));
+        remaining.keySet().removeAll(reserved);
+        if (!remaining.isEmpty()) {
+            reserved.addAll(reserveAcrossShards(remaining));
+        }
+        return reserved;
+    }
+
+    @Override
+    public Set<Long> releaseOrders(Long[] orderIds) {
+        return new HashSet<>(productStockShardRepository.releaseStockOfOrders(orderIds));
+    }
+
+    @Override
+    public void release(Long[] productIds, Integer[] quantities) {
+        productStockShardRepository.releaseStock(productIds, quantities);
+    }
+
+    @Override
+    public void setStock(Long productId, int stockAmount) {
+        //the product row is updated first, so that concurrent stock overwrites of the product serialize on it
+        productRepository.setStockAmount(productId, 0);
+        productStockShardRepository.replaceShards(productId, stockAmount, shardCount);
+    }
+
+    @Override
+    public Map<Long, Integer> findAvailableStock(Map<Long, Integer> rowStockAmounts) {
+        if (rowStockAmounts.isEmpty()) {
+            return Map.of();
+        }
+        Map<Long, Integer> available = new HashMap<>();
+        productStockShardRepository.findStockAmounts(rowStockAmounts.keySet().toArray(Long[]::new))
+                .forEach((productId, shardStock) -> available.put(productId, rowStockAmounts.get(productId) + shardStock));
+        return available;
+    }
+
+    private Set<Long> reserveAcrossShards(Map<Long, Integer> quantities) {
+        Long[] lockedProductIds = quantities.keySet().toArray(Long[]::new);
+        //the product rows are locked first, like setStock does, and hold the stock released while all shards were locked
+        Map<Long, Integer> rowStockAmounts = productStockShardRepository.lockProductRows(lockedProductIds);
+        Map<Long, List<ShardStock>> shardsByProduct = new HashMap<>();
+        for (ShardStock shard : productStockShardRepository.lockShards(lockedProductIds)) {
+            shardsByProduct.computeIfAbsent(shard.productId(), id -> new ArrayList<>()).add(shard);
+        }
+
+        Set<Long> reserved = new HashSet<>();
+        Map<Long, Integer> takenFromRows = new LinkedHashMap<>();
+        List<Long> productIds = new ArrayList<>();
+        List<Integer> shards = new ArrayList<>();
+        List<Integer> takenQuantities = new ArrayList<>();
+        rowStockAmounts.forEach((productId, rowStockAmount) -> {
+            int quantity = quantities.get(productId);
+            List<ShardStock> productShards = shardsByProduct.getOrDefault(productId, List.of());
+            if (rowStockAmount + productShards.stream().mapToInt(ShardStock::stockAmount).sum() < quantity) {
+                return;
+            }
+            int takenFromRow = Math.min(quantity, Math.max(0, rowStockAmount));
+            if (takenFromRow > 0) {
+                takenFromRows.put(productId, takenFromRow);
+                quantity -= takenFromRow;
+            }
+            for (ShardStock shard : productShards) {
+                int taken = Math.min(quantity, shard.stockAmount());
+                if (taken > 0) {
+                    productIds.add(productId);
+                    shards.add(shard.shard());
+                    takenQuantities.add(taken);
+                    quantity -= taken;
+                }
+            }
+            reserved.add(productId);
+        });
+
+        if (!takenFromRows.isEmpty()) {
+            productRepository.reserveStock(takenFromRows.keySet().toArray(Long[]::new), takenFromRows.values().toArray(Integer[]::new));
+        }
+        if (!productIds.isEmpty()) {
+            productStockShardRepository.takeFromShards(productIds.toArray(Long[]::new), shards.toArray(Integer[]::new), takenQuantities.toArray(Integer[]::new));
+        }
+        if (!reserved.isEmpty()) {
+            log.debug("Reserved products {} across their product rows and shards", reserved);
+        }
+        return reserved;
+    }
+
+    private static Map<Long, Integer> remaining(Long[] productIds, Integer[] quantities, Set<Long> reserved) {
+        Map<Long, Integer> remaining = new LinkedHashMap<>();
+        for (int i = 0; i < productIds.length; i++) {
+            if (!reserved.contains(productIds[i])) {
+                remaining.put(productIds[i], quantities[i]);
+            }
+        }
+        return remaining;
+    }
+}
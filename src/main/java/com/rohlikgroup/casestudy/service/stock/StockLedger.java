@@ -0,0 +1,54 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Owns the writes to product stock. The implementation is picked by {@code app.inventory.mode}, every method must be
+ * called inside a transaction and its effects are rolled back with it.
+ */
+public interface StockLedger {
+
+    /**
+     * Decrements the stock of all given products. A product is only decremented when it has enough stock for the
+     * requested quantity, so the products missing from the result ran out of stock (or do not exist).
+     *
+     * @param productIds the IDs of the products to reserve, aligned with {@code quantities}
+     * @param quantities the quantities to reserve
+     * @return the IDs of the products whose stock was reserved
+     */
+    Set<Long> reserve(Long[] productIds, Integer[] quantities);
+
+    /**
+     * Returns the stock reserved by all items of the given orders.
+     *
+     * @param orderIds the IDs of the orders whose stock to release
+     * @return the IDs of the products whose stock was released
+     */
+    Set<Long> releaseOrders(Long[] orderIds);
+
+    /**
+     * Returns stock that was reserved with {@link #reserve(Long[], Integer[])} but is not going to be ordered.
+     *
+     * @param productIds the IDs of the products to release, aligned with {@code quantities}
+     * @param quantities the quantities to release
+     */
+    void release(Long[] productIds, Integer[] quantities);
+
+    /**
+     * Overwrites the stock of a product.
+     *
+     * @param productId   the ID of the product
+     * @param stockAmount the new stock amount of the product
+     */
+    void setStock(Long productId, int stockAmount);
+
+    /**
+     * Reads the stock available to order of the given products, for the reads that show it. Only ledgers that hold
+     * stock outside of {@code products.stock_amount} read anything.
+     *
+     * @param rowStockAmounts the stock amounts of the product rows, keyed by product ID
+     * @return the available stock keyed by product ID, the products missing from it have just their row stock
+     */
+    Map<Long, Integer> findAvailableStock(Map<Long, Integer> rowStockAmounts);
+}
@@ -0,0 +1,3 @@
+-- Order is optimistically locked with @Version, the column was missing from the initial schema
+ALTER TABLE rohlik.orders
+    ADD COLUMN version INTEGER NOT NULL DEFAULT 0;
@@ -0,0 +1,9 @@
+-- Stock of hot products split into slots, so that concurrent reservations lock different rows (sharded inventory mode).
+-- The stock of a product is products.stock_amount plus the stock of all its shards.
+CREATE TABLE rohlik.product_stock_shards
+(
+    product_id   BIGINT  NOT NULL REFERENCES rohlik.products (id) ON DELETE CASCADE,
+    shard        INTEGER NOT NULL,
+    stock_amount INTEGER NOT NULL CHECK (stock_amount >= 0),
+    PRIMARY KEY (product_id, shard)
+);
@@ -0,0 +1,11 @@
+-- Stock changes of the in-memory inventory mode, written in the transaction of the order and folded into
+-- products.stock_amount in batches. No foreign key, so that appending never locks the product row.
+CREATE TABLE rohlik.stock_journal
+(
+    seq        BIGSERIAL NOT NULL PRIMARY KEY,
+    product_id BIGINT    NOT NULL,
+    delta      INTEGER   NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE INDEX stock_journal_product_id_idx ON rohlik.stock_journal (product_id);
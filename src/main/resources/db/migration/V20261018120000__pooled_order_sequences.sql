@@ -0,0 +1,3 @@
+-- Order and order item ids are allocated by Hibernate in blocks of 50 (pooled-lo), every nextval reserves a whole block
+ALTER SEQUENCE rohlik.orders_id_seq INCREMENT BY 50;
+ALTER SEQUENCE rohlik.order_items_id_seq INCREMENT BY 50;
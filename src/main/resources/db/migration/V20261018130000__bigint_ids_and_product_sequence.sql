@@ -0,0 +1,10 @@
+-- The entities map the ids as Long, the SERIAL columns would overflow at 2^31. Rewrites the tables.
+ALTER TABLE rohlik.products ALTER COLUMN id TYPE BIGINT;
+ALTER TABLE rohlik.orders ALTER COLUMN id TYPE BIGINT;
+ALTER TABLE rohlik.order_items ALTER COLUMN id TYPE BIGINT;
+
+ALTER SEQUENCE rohlik.orders_id_seq AS BIGINT;
+ALTER SEQUENCE rohlik.order_items_id_seq AS BIGINT;
+
+-- Product ids are allocated by Hibernate in blocks of 50 (pooled-lo) like order ids
+ALTER SEQUENCE rohlik.products_id_seq AS BIGINT INCREMENT BY 50;
@@ -0,0 +1,11 @@
+-- Change events written in the transaction of the change and published to a stream by the outbox relay, which deletes
+-- them once published. Events of one aggregate get increasing ids in the order their transactions commit.
+CREATE TABLE rohlik.outbox_events
+(
+    id             BIGSERIAL   NOT NULL PRIMARY KEY,
+    aggregate_type VARCHAR(32) NOT NULL,
+    aggregate_id   BIGINT      NOT NULL,
+    event_type     VARCHAR(32) NOT NULL,
+    payload        JSONB       NOT NULL,
+    created_at     TIMESTAMP   NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
@@ -0,0 +1,26 @@
+-- Aggregates of the orders of every product, maintained in the transactions that create orders and change their status.
+-- Active orders are pending or paid. The aggregates of a product are split into shards by order id, so that concurrent
+-- orders of a hot product update different rows; the stats of a product are the sums over its shards.
+CREATE TABLE rohlik.product_stats
+(
+    product_id        BIGINT  NOT NULL REFERENCES rohlik.products (id) ON DELETE CASCADE,
+    shard             INTEGER NOT NULL,
+    reserved_quantity BIGINT  NOT NULL DEFAULT 0,
+    sold_quantity     BIGINT  NOT NULL DEFAULT 0,
+    active_orders     INTEGER NOT NULL DEFAULT 0,
+    PRIMARY KEY (product_id, shard)
+);
+
+-- the stats are derived from the items of an order when its status changes
+CREATE INDEX order_items_order_id_idx ON rohlik.order_items (order_id);
+CREATE INDEX order_items_product_id_idx ON rohlik.order_items (product_id);
+
+INSERT INTO rohlik.product_stats (product_id, shard, reserved_quantity, sold_quantity, active_orders)
+SELECT oi.product_id,
+       0,
+       COALESCE(SUM(oi.quantity) FILTER (WHERE o.order_status = 'PENDING'), 0),
+       COALESCE(SUM(oi.quantity) FILTER (WHERE o.order_status = 'PAID'), 0),
+       COUNT(DISTINCT o.id) FILTER (WHERE o.order_status IN ('PENDING', 'PAID'))
+FROM rohlik.order_items oi
+JOIN rohlik.orders o ON o.id = oi.order_id
+GROUP BY oi.product_id;
@@ -0,0 +1,3 @@
+-- The expiry sweep and the overdue order count only look at pending orders, which are a small and recent fraction of
+-- all orders. Paid, canceled and expired orders drop out of the index.
+CREATE INDEX orders_pending_created_at_idx ON rohlik.orders (created_at) WHERE order_status = 'PENDING';
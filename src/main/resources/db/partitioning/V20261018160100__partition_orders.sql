@@ -0,0 +1,78 @@
+-- Converts orders and order_items into tables partitioned by the month of created_at, only applied with the
+-- "partitioned" profile. The keys of a partitioned table must contain the partition key, so the primary keys include
+-- created_at and items reference their order together with its created_at. Both rows get it from the same transaction.
+
+-- creates the missing monthly partitions of both tables from the month of from_date to the month of to_date
+CREATE FUNCTION rohlik.create_order_partitions(from_date DATE, to_date DATE) RETURNS INTEGER AS
+$$
+DECLARE
+    month   DATE := date_trunc('month', from_date);
+    created INTEGER := 0;
+BEGIN
+    WHILE month <= to_date LOOP
+        IF to_regclass('rohlik.orders_p' || to_char(month, 'YYYYMM')) IS NULL THEN
+            EXECUTE format('CREATE TABLE rohlik.%I PARTITION OF rohlik.orders FOR VALUES FROM (%L) TO (%L)',
+                           'orders_p' || to_char(month, 'YYYYMM'), month, month + INTERVAL '1 month');
+            created := created + 1;
+        END IF;
+        IF to_regclass('rohlik.order_items_p' || to_char(month, 'YYYYMM')) IS NULL THEN
+            EXECUTE format('CREATE TABLE rohlik.%I PARTITION OF rohlik.order_items FOR VALUES FROM (%L) TO (%L)',
+                           'order_items_p' || to_char(month, 'YYYYMM'), month, month + INTERVAL '1 month');
+            created := created + 1;
+        END IF;
+        month := month + INTERVAL '1 month';
+    END LOOP;
+    RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+ALTER TABLE rohlik.order_items RENAME TO order_items_unpartitioned;
+ALTER TABLE rohlik.orders RENAME TO orders_unpartitioned;
+ALTER INDEX rohlik.orders_pending_created_at_idx RENAME TO orders_unpartitioned_pending_created_at_idx;
+ALTER INDEX rohlik.order_items_order_id_idx RENAME TO order_items_unpartitioned_order_id_idx;
+ALTER INDEX rohlik.order_items_product_id_idx RENAME TO order_items_unpartitioned_product_id_idx;
+
+CREATE TABLE rohlik.orders
+(
+    id           BIGINT       NOT NULL DEFAULT nextval('rohlik.orders_id_seq'),
+    order_status order_status NOT NULL,
+    paid_at      TIMESTAMP,
+    created_at   TIMESTAMP    NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    version      INTEGER      NOT NULL DEFAULT 0,
+    PRIMARY KEY (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+CREATE TABLE rohlik.order_items
+(
+    id         BIGINT    NOT NULL DEFAULT nextval('rohlik.order_items_id_seq'),
+    order_id   BIGINT    NOT NULL,
+    product_id BIGINT    NOT NULL REFERENCES rohlik.products (id),
+    quantity   INTEGER   NOT NULL,
+    created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    PRIMARY KEY (id, created_at),
+    FOREIGN KEY (order_id, created_at) REFERENCES rohlik.orders (id, created_at)
+) PARTITION BY RANGE (created_at);
+
+CREATE INDEX orders_pending_created_at_idx ON rohlik.orders (created_at) WHERE order_status = 'PENDING';
+CREATE INDEX order_items_order_id_idx ON rohlik.order_items (order_id);
+CREATE INDEX order_items_product_id_idx ON rohlik.order_items (product_id);
+
+SELECT rohlik.create_order_partitions(
+               COALESCE((SELECT min(created_at) FROM rohlik.orders_unpartitioned), CURRENT_DATE)::DATE,
+               (CURRENT_DATE + INTERVAL '3 months')::DATE);
+
+INSERT INTO rohlik.orders (id, order_status, paid_at, created_at, version)
+SELECT id, order_status, paid_at, created_at, version
+FROM rohlik.orders_unpartitioned;
+
+-- items that were inserted in a later transaction than their order move to the partition of the order
+INSERT INTO rohlik.order_items (id, order_id, product_id, quantity, created_at)
+SELECT oi.id, oi.order_id, oi.product_id, oi.quantity, o.created_at
+FROM rohlik.order_items_unpartitioned oi
+JOIN rohlik.orders_unpartitioned o ON o.id = oi.order_id;
+
+ALTER SEQUENCE rohlik.orders_id_seq OWNED BY rohlik.orders.id;
+ALTER SEQUENCE rohlik.order_items_id_seq OWNED BY rohlik.order_items.id;
+
+DROP TABLE rohlik.order_items_unpartitioned;
+DROP TABLE rohlik.orders_unpartitioned;
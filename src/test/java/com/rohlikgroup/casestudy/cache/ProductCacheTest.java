@@ -0,0 +1,168 @@
+package com.rohlikgroup.casestudy.cache;
+
+import com.rohlikgroup.casestudy.cache.codec.CompactRedisSerializer;
+import com.rohlikgroup.casestudy.cache.codec.ProductDtoCodec;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ProductCacheTest {
+
+    private static final ProductDto MILK = new ProductDto(1L, "Milk", 5, new BigDecimal("19.90"));
+    private static final ProductDto MILK_SOLD = new ProductDto(1L, "Milk", 4, new BigDecimal("19.90"));
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = Mockito.mock(RedisTemplate.class);
+    private final CompactRedisSerializer serializer = new CompactRedisSerializer(List.of(new ProductDtoCodec()));
+    //what the scripts would leave in Redis
+    private final Map<String, Object> redis = new HashMap<>();
+    private final ProductCache productCache = new ProductCache(redisTemplate, 100, Duration.ofMinutes(1), true, Duration.ofMinutes(10), false, Duration.ZERO, 0);
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void fakeRedis() {
+        ValueOperations<String, Object> valueOperations = Mockito.mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.doReturn(serializer).when(redisTemplate).getValueSerializer();
+        when(valueOperations.multiGet(Mockito.anyList())).then(a -> a.<List<String>>getArgument(0).stream().map(redis::get).toList());
+        when(redisTemplate.execute(Mockito.<RedisScript<Long>>any(), Mockito.anyList(), Mockito.any(Object[].class))).then(a -> {
+            RedisScript<Long> script = a.getArgument(0);
+            List<String> keys = a.getArgument(1);
+            Object[] args = (Object[]) a.getRawArguments()[2];
+            if (script.getScriptAsString().contains("DEL")) {
+                for (int i = 0; i < keys.size(); i += 2) {
+                    redis.remove(keys.get(i));
+                    redis.put(keys.get(i + 1), args[0]);
+                }
+                return (long) keys.size() / 2;
+            }
+            if (Objects.equals(redis.get(keys.get(1)), args[0])) {
+                redis.put(keys.get(0), args[1]);
+                return 1L;
+            }
+            return 0L;
+        });
+    }
+
+    @Test
+    void loadsOnMissAndServesHitsFromBothTiers() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals(MILK, productCache.getProduct(1L, id -> load(loads, MILK)));
+        assertEquals(MILK, productCache.getProduct(1L, id -> load(loads, MILK)));
+        assertEquals(1, loads.get());
+        assertEquals(MILK, redis.get("products:1"));
+
+        //another node finds the product in Redis
+        ProductCache otherNode = new ProductCache(redisTemplate, 100, Duration.ofMinutes(1), true, Duration.ofMinutes(10), false, Duration.ZERO, 0);
+        assertEquals(MILK, otherNode.getProduct(1L, id -> load(loads, MILK)));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void evictsChangedProducts() {
+        AtomicInteger loads = new AtomicInteger();
+        productCache.getProduct(1L, id -> load(loads, MILK));
+
+        productCache.evict(List.of(1L));
+
+        assertNull(redis.get("products:1"));
+        assertEquals(MILK_SOLD, productCache.getProduct(1L, id -> load(loads, MILK_SOLD)));
+        assertEquals(2, loads.get());
+        assertEquals(MILK_SOLD, redis.get("products:1"));
+        verify(redisTemplate).convertAndSend(ProductCache.INVALIDATION_CHANNEL, "1");
+    }
+
+    @Test
+    void doesNotCacheALoadThatRacedWithAnEviction() {
+        AtomicInteger loads = new AtomicInteger();
+
+        //the stock changes and is evicted after the load read the database, but before it wrote the result
+        ProductDto loaded = productCache.getProduct(1L, id -> {
+            ProductDto stale = load(loads, MILK);
+            productCache.evict(List.of(1L));
+            return stale;
+        });
+
+        assertEquals(MILK, loaded);
+        assertNull(redis.get("products:1"));
+        assertEquals(MILK_SOLD, productCache.getProduct(1L, id -> load(loads, MILK_SOLD)));
+        assertEquals(MILK_SOLD, redis.get("products:1"));
+    }
+
+    @Test
+    void evictsOnlyThePagesCoveringTheProducts() {
+        AtomicInteger loads = new AtomicInteger();
+        KeysetPage<ProductDto> firstPage = new KeysetPage<>(List.of(MILK, new ProductDto(2L, "Bread", 1, BigDecimal.ONE)), 2L);
+        KeysetPage<ProductDto> lastPage = new KeysetPage<>(List.of(new ProductDto(3L, "Eggs", 1, BigDecimal.ONE)), null);
+        productCache.getProductPage(0, 2, () -> load(loads, firstPage));
+        productCache.getProductPage(2, 2, () -> load(loads, lastPage));
+
+        //a product created after the last page belongs to it
+        productCache.evict(List.of(4L));
+        productCache.getProductPage(0, 2, () -> load(loads, firstPage));
+        productCache.getProductPage(2, 2, () -> load(loads, lastPage));
+        assertEquals(3, loads.get());
+
+        productCache.evict(List.of(2L));
+        productCache.getProductPage(0, 2, () -> load(loads, firstPage));
+        productCache.getProductPage(2, 2, () -> load(loads, lastPage));
+        assertEquals(4, loads.get());
+    }
+
+    @Test
+    void evictsTheLocalTierOnInvalidationMessages() {
+        AtomicInteger loads = new AtomicInteger();
+        productCache.getProduct(1L, id -> load(loads, MILK));
+        productCache.getProduct(2L, id -> load(loads, MILK));
+        redis.clear();
+
+        productCache.onMessage(new DefaultMessage(ProductCache.INVALIDATION_CHANNEL.getBytes(), serializer.serialize("1")), null);
+
+        productCache.getProduct(1L, id -> load(loads, MILK_SOLD));
+        productCache.getProduct(2L, id -> load(loads, MILK_SOLD));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void repeatsEvictionsOnceTheReplicaCaughtUp() {
+        ProductCache withReplica = new ProductCache(redisTemplate, 100, Duration.ofMinutes(1), true, Duration.ofMinutes(10), true, Duration.ZERO, 50);
+        try {
+            withReplica.evict(List.of(1L));
+
+            verify(redisTemplate, Mockito.timeout(1000).times(2)).convertAndSend(ProductCache.INVALIDATION_CHANNEL, "1");
+        } finally {
+            withReplica.shutdown();
+        }
+    }
+
+    @Test
+    void ignoresEmptyEvictions() {
+        productCache.evict(List.of());
+
+        Mockito.verifyNoInteractions(redisTemplate);
+    }
+
+    private static <T> T load(AtomicInteger loads, T value) {
+        loads.incrementAndGet();
+        return value;
+    }
+}
@@ -0,0 +1,81 @@
+package com.rohlikgroup.casestudy.cache.codec;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
+import com.rohlikgroup.casestudy.dto.ProductDto;
+import org.junit.jupiter.api.DynamicNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+class CompactRedisSerializerTest {
+
+    private final CompactRedisSerializer serializer = new CompactRedisSerializer(List.of(new ProductDtoCodec(), new OrderDtoCodec()));
+
+    @TestFactory
+    List<DynamicNode> roundTrip() {
+        ProductDto product = new ProductDto(42L, "Whole Milk 1L", 200, new BigDecimal("1.49"));
+        OrderDto order = new OrderDto(7L, "PAID", List.of(
+                new OrderItemDto(1L, product, 3),
+                new OrderItemDto(2L, new ProductDto(300L, "Žluťoučký kůň", 0, new BigDecimal("-12.5")), 1)
+        ), LocalDateTime.of(2025, 4, 1, 14, 30, 0, 123_456_000));
+        return List.of(
+                dynamicTest("Product", () -> assertEquals(product, roundTrip(product))),
+                dynamicTest("Product with nulls", () -> assertEquals(new ProductDto(null, null, null, null), roundTrip(new ProductDto(null, null, null, null)))),
+                dynamicTest("Order", () -> assertEquals(order, roundTrip(order))),
+                dynamicTest("Pending order", () -> assertEquals(new OrderDto(8L, "PENDING", List.of(), null), roundTrip(new OrderDto(8L, "PENDING", List.of(), null)))),
+                dynamicTest("List of products", () -> assertEquals(List.of(product, product), roundTrip(new ArrayList<>(List.of(product, product))))),
+                dynamicTest("String", () -> assertEquals("1,2,3", roundTrip("1,2,3"))),
+                dynamicTest("JDK fallback", () -> assertEquals(12345L, roundTrip(12345L))),
+                dynamicTest("Null", () -> assertNull(serializer.deserialize(serializer.serialize(null))))
+        );
+    }
+
+    @Test
+    void smallerThanJdkSerialization() {
+        ProductDto product = new ProductDto(42L, "Whole Milk 1L", 200, new BigDecimal("1.49"));
+
+        assertTrue(serializer.serialize(product).length * 10 < RedisSerializer.java().serialize(product).length);
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] bytes = serializer.serialize("value");
+        bytes[0] = (byte) (CompactRedisSerializer.FORMAT_VERSION + 1);
+
+        assertThrows(SerializationException.class, () -> serializer.deserialize(bytes));
+    }
+
+    @Test
+    void encodesOrderStatusesWithFixedCodes() {
+        byte[] bytes = serializer.serialize(new OrderDto(null, "PAID", null, null));
+        //version, type ID, presence bits, status code
+        assertEquals(3, bytes[bytes.length - 1]);
+
+        bytes[bytes.length - 1] = 42;
+        assertThrows(SerializationException.class, () -> serializer.deserialize(bytes));
+    }
+
+    @Test
+    void rejectsReservedTypeIds() {
+        assertThrows(IllegalArgumentException.class, () -> new CompactRedisSerializer(List.of(new ProductDtoCodec() {
+            @Override
+            public int typeId() {
+                return 1;
+            }
+        })));
+    }
+
+    private Object roundTrip(Object value) {
+        return serializer.deserialize(serializer.serialize(value));
+    }
+}
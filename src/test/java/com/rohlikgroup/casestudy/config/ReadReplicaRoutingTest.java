@@ -0,0 +1,71 @@
+package com.rohlikgroup.casestudy.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the replica pool against the database configured in {@code application.properties}, the pools tell their
+ * connections apart by the application name.
+ */
+@SpringBootTest(properties = {
+        "app.datasource.replica.enabled=true",
+        "app.datasource.replica.lag-check-interval-ms=3600000",
+        "spring.datasource.hikari.data-source-properties.ApplicationName=primary",
+        "app.datasource.replica.hikari.data-source-properties.ApplicationName=replica"
+})
+class ReadReplicaRoutingTest {
+
+    private static final String POOL_SQL = "SELECT current_setting('application_name')";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ReplicaLagGuard replicaLagGuard;
+
+    private TransactionTemplate readOnlyTransaction;
+    private TransactionTemplate transaction;
+
+    @BeforeEach
+    void setUp() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+        transaction = new TransactionTemplate(transactionManager);
+        replicaLagGuard.update(Duration.ZERO);
+    }
+
+    @Test
+    void readsFromTheReplicaInReadOnlyTransactions() {
+        assertEquals("replica", readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(POOL_SQL, String.class)));
+        assertEquals("primary", transaction.execute(status -> jdbcTemplate.queryForObject(POOL_SQL, String.class)));
+        assertEquals("primary", jdbcTemplate.queryForObject(POOL_SQL, String.class));
+    }
+
+    @Test
+    void readsFromThePrimaryWhileTheReplicaLags() {
+        replicaLagGuard.update(Duration.ofMinutes(1));
+        assertEquals("primary", readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(POOL_SQL, String.class)));
+
+        replicaLagGuard.update(null);
+        assertEquals("primary", readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(POOL_SQL, String.class)));
+    }
+
+    @Test
+    void checksTheLagOfTheReplica() {
+        replicaLagGuard.update(null);
+        replicaLagGuard.checkLag();
+
+        //the local database is not in recovery, so it never lags
+        assertEquals("replica", readOnlyTransaction.execute(status -> jdbcTemplate.queryForObject(POOL_SQL, String.class)));
+    }
+}
@@ -0,0 +1,64 @@
+package com.rohlikgroup.casestudy.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrencyLimitFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(meterRegistry, 1, 1);
+    private final ConcurrencyLimitFilter filter = new ConcurrencyLimitFilter(concurrencyLimiter, meterRegistry, Duration.ZERO);
+
+    @Test
+    void rejectsRequestsBeyondTheLimit() throws Exception {
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+
+        MockHttpServletResponse first = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/orders"), first,
+                (request, response) -> filter.doFilter(new MockHttpServletRequest("GET", "/orders"), rejected, new MockFilterChain()));
+
+        assertEquals(200, first.getStatus());
+        assertEquals(503, rejected.getStatus());
+        assertEquals("1", rejected.getHeader("Retry-After"));
+        assertEquals(1, meterRegistry.get("http.server.requests.rejected").counter().count());
+
+        MockHttpServletResponse afterRelease = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/orders"), afterRelease, new MockFilterChain());
+        assertEquals(200, afterRelease.getStatus());
+    }
+
+    @Test
+    void releasesThePermitOfAsyncRequestsWhenTheHandlerReturns() throws Exception {
+        MockHttpServletRequest streaming = new MockHttpServletRequest("GET", "/orders/stream");
+        streaming.setAsyncSupported(true);
+        filter.doFilter(streaming, new MockHttpServletResponse(), (request, response) -> request.startAsync());
+        assertEquals(0.0, meterRegistry.get("http.server.requests.in-flight").gauge().value());
+
+        //the response then takes a permit for every batch it reads
+        assertEquals(1.0, concurrencyLimiter.callWithPermit(() -> meterRegistry.get("http.server.requests.in-flight").gauge().value()));
+        assertEquals(0.0, meterRegistry.get("http.server.requests.in-flight").gauge().value());
+
+        assertTrue(concurrencyLimiter.tryAcquire(Duration.ZERO));
+        MockHttpServletResponse whileReadingABatch = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/orders"), whileReadingABatch, new MockFilterChain());
+        concurrencyLimiter.release();
+        assertEquals(503, whileReadingABatch.getStatus());
+        assertEquals(0.0, meterRegistry.get("http.server.requests.in-flight").gauge().value());
+    }
+
+    @Test
+    void doesNotLimitActuatorEndpoints() throws Exception {
+        MockHttpServletResponse health = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("GET", "/orders"), new MockHttpServletResponse(),
+                (request, response) -> filter.doFilter(new MockHttpServletRequest("GET", "/actuator/health"), health, new MockFilterChain()));
+
+        assertEquals(200, health.getStatus());
+    }
+}
@@ -0,0 +1,40 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.dto.KeysetPage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NdjsonResponsesTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final NdjsonResponses ndjsonResponses = new NdjsonResponses(new ObjectMapper(), new ConcurrencyLimiter(meterRegistry, 1, 1), 2);
+
+    @Test
+    void writesAllBatchesHoldingAPermitOnlyWhileReading() throws Exception {
+        List<Long> rows = LongStream.rangeClosed(1, 5).boxed().toList();
+        List<Long> cursors = new ArrayList<>();
+        List<Double> inFlight = new ArrayList<>();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        ndjsonResponses.<Long>stream((afterId, limit) -> {
+            cursors.add(afterId);
+            inFlight.add(meterRegistry.get("http.server.requests.in-flight").gauge().value());
+            long after = afterId == null ? 0L : afterId;
+            return KeysetPage.of(rows.stream().filter(id -> id > after).limit(limit + 1).toList(), limit, id -> id);
+        }).getBody().writeTo(output);
+
+        assertEquals("1\n2\n3\n4\n5\n", output.toString());
+        assertEquals(List.of(1.0, 1.0, 1.0), inFlight);
+        assertEquals(0.0, meterRegistry.get("http.server.requests.in-flight").gauge().value());
+        assertEquals(3, cursors.size());
+        assertEquals(List.of(2L, 4L), cursors.subList(1, 3));
+    }
+}
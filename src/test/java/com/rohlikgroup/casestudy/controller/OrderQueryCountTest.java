@@ -0,0 +1,146 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.rohlikgroup.casestudy.support.SqlStatementCounter;
+import com.jayway.jsonpath.JsonPath;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Guards the number of SQL statements per order endpoint against N+1 regressions. Runs against the database
+ * configured in {@code application.properties}, every test is rolled back.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.session_factory.statement_inspector=com.rohlikgroup.casestudy.support.SqlStatementCounter")
+@AutoConfigureMockMvc
+@Transactional
+class OrderQueryCountTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private EntityManager entityManager;
+
+    @BeforeEach
+    void resetCounter() {
+        SqlStatementCounter.reset();
+    }
+
+    @Test
+    void listOrders() throws Exception {
+        mockMvc.perform(get("/orders").param("limit", "5"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].orderItems[0].product.name").isString());
+
+        //page of IDs, orders with items and products
+        assertEquals(2, SqlStatementCounter.count());
+    }
+
+    @Test
+    void createOrder() throws Exception {
+        mockMvc.perform(post("/orders")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"orderItems": [{"productId": 2, "quantity": 1}, {"productId": 12, "quantity": 1}, {"productId": 13, "quantity": 1}]}
+                                """))
+                .andExpect(status().isCreated());
+        entityManager.flush();
+
+        //stock reservation, products and a batched insert of the order and of its items
+        assertEquals(2 + 2, SqlStatementCounter.count());
+    }
+
+    @Test
+    void createOrders() throws Exception {
+        mockMvc.perform(post("/orders/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"orders": [
+                                  {"orderItems": [{"productId": 2, "quantity": 1}, {"productId": 12, "quantity": 1}]},
+                                  {"orderItems": [{"productId": 12, "quantity": 1}, {"productId": 13, "quantity": 1}]},
+                                  {"orderItems": [{"productId": 999999, "quantity": 1}]},
+                                  {"orderItems": [{"productId": 13, "quantity": 2}]}
+                                ]}
+                                """))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("CREATED"))
+                .andExpect(jsonPath("$[1].outcome").value("CREATED"))
+                .andExpect(jsonPath("$[2].outcome").value("PRODUCT_NOT_FOUND"))
+                .andExpect(jsonPath("$[3].outcome").value("CREATED"));
+        entityManager.flush();
+
+        //products, one stock reservation for the whole batch and a batched insert of all orders and of all their items
+        assertEquals(2 + 2, SqlStatementCounter.count());
+    }
+
+    @Test
+    void cancelOrder() throws Exception {
+        long orderId = createPendingOrder();
+        SqlStatementCounter.reset();
+
+        mockMvc.perform(post("/orders/{id}/cancel", orderId)).andExpect(status().isOk());
+        mockMvc.perform(get("/orders").param("limit", "1")).andExpect(status().isOk());
+
+        //order with items and products, stock release, status update and the two statements of the listing
+        assertEquals(3 + 2, SqlStatementCounter.count());
+    }
+
+    @Test
+    void payOrder() throws Exception {
+        long orderId = createPendingOrder();
+        SqlStatementCounter.reset();
+
+        mockMvc.perform(post("/orders/{id}/pay", orderId)).andExpect(status().isOk());
+        mockMvc.perform(get("/orders").param("limit", "1")).andExpect(status().isOk());
+
+        //order with items and products, status update and the two statements of the listing
+        assertEquals(2 + 2, SqlStatementCounter.count());
+    }
+
+    @Test
+    void payOrders() throws Exception {
+        long orderId = createPendingOrder();
+        long otherOrderId = createPendingOrder();
+        SqlStatementCounter.reset();
+
+        mockMvc.perform(post("/orders/pay")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"orderIds": [%d, %d, %d, 999999]}
+                                """.formatted(orderId, otherOrderId, orderId)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].outcome").value("PAID"))
+                .andExpect(jsonPath("$[0].order.status").value("PAID"))
+                .andExpect(jsonPath("$[1].outcome").value("PAID"))
+                .andExpect(jsonPath("$[2].outcome").value("NOT_PENDING"))
+                .andExpect(jsonPath("$[3].outcome").value("NOT_FOUND"));
+
+        //status update of the whole batch, paid orders with items and products and the IDs of the orders not paid
+        assertEquals(3, SqlStatementCounter.count());
+    }
+
+    private long createPendingOrder() throws Exception {
+        String response = mockMvc.perform(post("/orders")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("""
+                                {"orderItems": [{"productId": 1, "quantity": 1}, {"productId": 8, "quantity": 1}]}
+                                """))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        //the next request starts with an empty persistence context, like it would outside of the test transaction
+        entityManager.flush();
+        entityManager.clear();
+        return ((Number) JsonPath.read(response, "$.id")).longValue();
+    }
+}
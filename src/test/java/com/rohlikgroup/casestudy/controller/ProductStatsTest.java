@@ -0,0 +1,82 @@
+package com.rohlikgroup.casestudy.controller;
+
+import com.jayway.jsonpath.JsonPath;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Follows the product stats through the order lifecycle. Runs against the database configured in
+ * {@code application.properties}, every test is rolled back.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@Transactional
+class ProductStatsTest {
+
+    private static final long PRODUCT_ID = 3;
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    void followsTheOrderLifecycle() throws Exception {
+        List<Number> before = stats();
+
+        long paidOrderId = createOrder(2);
+        long canceledOrderId = createOrder(3);
+        assertEquals(List.of(5, 0, 2), delta(before, stats()));
+
+        mockMvc.perform(post("/orders/{id}/pay", paidOrderId)).andExpect(status().isOk());
+        mockMvc.perform(post("/orders/{id}/cancel", canceledOrderId)).andExpect(status().isOk());
+        assertEquals(List.of(0, 2, 1), delta(before, stats()));
+
+        //the paid order keeps the product in use
+        mockMvc.perform(delete("/products/{id}", PRODUCT_ID)).andExpect(status().isConflict());
+    }
+
+    @Test
+    void rejectsUnknownProducts() throws Exception {
+        mockMvc.perform(get("/products/{id}/stats", 999999)).andExpect(status().isNotFound());
+    }
+
+    private long createOrder(int quantity) throws Exception {
+        String response = mockMvc.perform(post("/orders")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"orderItems\": [{\"productId\": " + PRODUCT_ID + ", \"quantity\": " + quantity + "}]}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        //the next request starts with an empty persistence context, like it would outside of the test transaction
+        entityManager.flush();
+        entityManager.clear();
+        return ((Number) JsonPath.read(response, "$.id")).longValue();
+    }
+
+    private List<Number> stats() throws Exception {
+        String response = mockMvc.perform(get("/products/{id}/stats", PRODUCT_ID))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return List.of(JsonPath.read(response, "$.reservedQuantity"), JsonPath.read(response, "$.soldQuantity"), JsonPath.read(response, "$.activeOrders"));
+    }
+
+    private static List<Integer> delta(List<Number> before, List<Number> after) {
+        return List.of(after.get(0).intValue() - before.get(0).intValue(),
+                after.get(1).intValue() - before.get(1).intValue(),
+                after.get(2).intValue() - before.get(2).intValue());
+    }
+}
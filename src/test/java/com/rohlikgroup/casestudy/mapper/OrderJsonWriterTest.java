@@ -0,0 +1,40 @@
+package com.rohlikgroup.casestudy.mapper;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OrderJsonWriterTest {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final OrderJsonWriter orderJsonWriter = new OrderJsonWriter(objectMapper);
+
+    @Test
+    void writesTheSameJsonAsTheAssembledDtos() throws Exception {
+        LocalDateTime paidAt = LocalDateTime.of(2025, 4, 1, 14, 30, 15, 250_000_000);
+        List<OrderItemRow> rows = List.of(
+                new OrderItemRow(1L, OrderStatus.PENDING, null, 10L, 2, 7L, "Milk", 5, new BigDecimal("19.90")),
+                new OrderItemRow(2L, OrderStatus.PAID, paidAt, 11L, 1, 7L, "Milk", 5, new BigDecimal("19.90")),
+                new OrderItemRow(2L, OrderStatus.PAID, paidAt, 12L, 3, 8L, "Bread \"rye\"", 0, null),
+                new OrderItemRow(3L, OrderStatus.CANCELED, null, null, null, null, null, null, null));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        orderJsonWriter.writeOrders(outputStream, rows);
+
+        var orders = OrderItemRows.toOrders(rows);
+        assertEquals(3, orders.size());
+        assertEquals(2, orders.get(1).orderItems().size());
+        assertEquals(List.of(), orders.get(2).orderItems());
+        assertEquals(objectMapper.writeValueAsString(orders), outputStream.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,47 @@
+package com.rohlikgroup.casestudy.service;
+
+import com.rohlikgroup.casestudy.repository.OrderPartitionRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class OrderPartitionMaintenanceTest {
+
+    private final OrderPartitionRepository orderPartitionRepository = mock(OrderPartitionRepository.class);
+
+    @Test
+    void createsPartitionsAheadAndDetachesExpiredOnes() {
+        when(orderPartitionRepository.findPartitionsBefore(OrderPartitionRepository.ORDER_ITEMS, LocalDate.of(2024, 10, 1))).thenReturn(List.of("order_items_p202409"));
+        when(orderPartitionRepository.findPartitionsBefore(OrderPartitionRepository.ORDERS, LocalDate.of(2024, 10, 1))).thenReturn(List.of("orders_p202409"));
+
+        new OrderPartitionMaintenance(orderPartitionRepository, 3, 24).maintainPartitions(LocalDate.of(2026, 10, 18));
+
+        InOrder inOrder = inOrder(orderPartitionRepository);
+        inOrder.verify(orderPartitionRepository).createPartitions(LocalDate.of(2026, 10, 1), LocalDate.of(2027, 1, 1));
+        inOrder.verify(orderPartitionRepository).detachPartition(OrderPartitionRepository.ORDER_ITEMS, "order_items_p202409");
+        inOrder.verify(orderPartitionRepository).detachPartition(OrderPartitionRepository.ORDERS, "orders_p202409");
+    }
+
+    @Test
+    void keepsAllPartitionsWithoutRetention() {
+        new OrderPartitionMaintenance(orderPartitionRepository, 3, 0).maintainPartitions(LocalDate.of(2026, 10, 18));
+
+        verify(orderPartitionRepository).createPartitions(LocalDate.of(2026, 10, 1), LocalDate.of(2027, 1, 1));
+        verify(orderPartitionRepository, never()).detachPartition(any(), any());
+    }
+
+    @Test
+    void skipsWhileAnotherNodeMaintains() {
+        when(orderPartitionRepository.runWithAdvisoryLock(anyLong(), any())).thenReturn(false);
+
+        new OrderPartitionMaintenance(orderPartitionRepository, 3, 24).maintainPartitions();
+
+        verify(orderPartitionRepository, never()).createPartitions(any(), any());
+    }
+}
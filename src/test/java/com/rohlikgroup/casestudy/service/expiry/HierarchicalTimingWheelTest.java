@@ -0,0 +1,56 @@
+package com.rohlikgroup.casestudy.service.expiry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HierarchicalTimingWheelTest {
+
+    @Test
+    void returnsEntriesWithinOneTickAfterDeadline() {
+        HierarchicalTimingWheel<Long> wheel = new HierarchicalTimingWheel<>(10, 4, 1_000);
+        Random random = new Random(42);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 1_000; i++) {
+            long deadline = 1_000 + random.nextInt(100_000);
+            deadlines.add(deadline);
+            assertTrue(wheel.add(deadline, deadline));
+        }
+        assertEquals(1_000, wheel.size());
+
+        List<Long> returned = new ArrayList<>();
+        for (long now = 1_000; now <= 102_000; now += 7) {
+            for (Long deadline : wheel.advance(now)) {
+                assertTrue(deadline <= now, "returned before deadline");
+                assertTrue(now - deadline < 10 + 7, "returned more than a tick after deadline");
+                returned.add(deadline);
+            }
+        }
+
+        assertEquals(deadlines.stream().sorted().toList(), returned.stream().sorted().toList());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rejectsPastDeadlines() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(100, 512, 10_000);
+
+        assertFalse(wheel.add(9_999, "past"));
+        assertTrue(wheel.add(10_050, "current tick"));
+        assertEquals(List.of(), wheel.advance(10_099));
+        assertEquals(List.of("current tick"), wheel.advance(10_100));
+    }
+
+    @Test
+    void skipsLongIdlePeriods() {
+        HierarchicalTimingWheel<String> wheel = new HierarchicalTimingWheel<>(100, 8, 0);
+        wheel.add(3_600_000, "in an hour");
+
+        assertEquals(List.of(), wheel.advance(3_599_999));
+        assertEquals(List.of("in an hour"), wheel.advance(3_600_100));
+    }
+}
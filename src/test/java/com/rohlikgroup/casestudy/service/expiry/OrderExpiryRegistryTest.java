@@ -0,0 +1,152 @@
+package com.rohlikgroup.casestudy.service.expiry;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderExpiryRegistryTest {
+
+    //deadlines in the past are due on the next poll, without waiting for the wheel to tick
+    private static final Duration OVERDUE = Duration.ofSeconds(-1);
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = Mockito.mock(RedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ZSetOperations<String, Object> zSetOperations = Mockito.mock(ZSetOperations.class);
+    @SuppressWarnings("unchecked")
+    private final SetOperations<String, Object> setOperations = Mockito.mock(SetOperations.class);
+
+    @Test
+    void returnsDueOrdersOnce() {
+        OrderExpiryRegistry registry = registry(false, OVERDUE);
+        registry.register(1L);
+        registry.register(2L);
+        registry.unregister(List.of(2L));
+
+        assertEquals(List.of(1L), registry.pollDue());
+        assertEquals(List.of(), registry.pollDue());
+    }
+
+    @Test
+    void retriesOrdersThatCouldNotBeExpired() {
+        OrderExpiryRegistry registry = registry(false, OVERDUE);
+        registry.register(1L);
+        registry.register(2L);
+        registry.register(3L);
+        assertEquals(List.of(1L, 2L, 3L), registry.pollDue());
+
+        //the order 2 was paid while it was locked
+        registry.unregister(List.of(2L));
+        registry.retryLater(List.of(1L, 2L, 3L));
+
+        assertEquals(List.of(1L, 3L), registry.pollDue());
+    }
+
+    @Test
+    void leavesOrdersToTheSweepAfterTheLastAttempt() {
+        OrderExpiryRegistry registry = registry(false, OVERDUE);
+        registry.register(1L);
+
+        for (int attempt = 1; attempt <= 3; attempt++) {
+            assertEquals(List.of(1L), registry.pollDue());
+            registry.retryLater(List.of(1L));
+        }
+
+        assertEquals(List.of(), registry.pollDue());
+    }
+
+    @Test
+    void delaysRetries() {
+        OrderExpiryRegistry registry = registry(false, Duration.ofMinutes(1));
+        registry.register(1L);
+        assertEquals(List.of(1L), registry.pollDue());
+
+        registry.retryLater(List.of(1L));
+
+        assertEquals(List.of(), registry.pollDue());
+    }
+
+    @Test
+    void restoresOnlyTheDeadlinesOfTheNode() {
+        mockRedis(Set.of("node-a"));
+        Set<ZSetOperations.TypedTuple<Object>> page = new LinkedHashSet<>(List.of(
+                new DefaultTypedTuple<>("7", 1_000.0),
+                new DefaultTypedTuple<>("8", 2_000.0)));
+        when(zSetOperations.rangeByScoreWithScores("orders:expiry-deadlines:node-a", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, 1000))
+                .thenReturn(page);
+        OrderExpiryRegistry registry = registry(true, OVERDUE);
+
+        registry.restore();
+
+        assertEquals(List.of(7L, 8L), registry.pollDue());
+        registry.retryLater(List.of(7L));
+        registry.pollDue();
+        registry.retryLater(List.of(7L));
+        registry.pollDue();
+        registry.retryLater(List.of(7L));
+        verify(zSetOperations).remove("orders:expiry-deadlines:node-a", "7");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void adoptsTheDeadlinesOfNodesThatAreGone() {
+        mockRedis(Set.of("node-a", "node-b", "node-c"));
+        //node-b is gone, node-c is still alive
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("orders:expiry-deadlines:node-b", "orders:expiry-heartbeat:node-b",
+                "orders:expiry-deadlines:node-a", "orders:expiry-nodes")), any(Object[].class))).thenReturn(1L);
+        when(redisTemplate.execute(any(RedisScript.class), eq(List.of("orders:expiry-deadlines:node-c", "orders:expiry-heartbeat:node-c",
+                "orders:expiry-deadlines:node-a", "orders:expiry-nodes")), any(Object[].class))).thenReturn(0L);
+        when(zSetOperations.rangeByScoreWithScores("orders:expiry-deadlines:node-a", Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, 0, 1000))
+                .thenReturn(new LinkedHashSet<>(List.of(new DefaultTypedTuple<>("7", 1_000.0))),
+                        new LinkedHashSet<>(List.of(new DefaultTypedTuple<>("7", 1_000.0), new DefaultTypedTuple<>("9", 3_000.0))));
+        OrderExpiryRegistry registry = registry(true, OVERDUE);
+        registry.restore();
+
+        registry.heartbeat();
+
+        //the adopted deadline is restored, the deadline that was already known isn't scheduled a second time
+        assertEquals(List.of(7L, 9L), registry.pollDue());
+        assertEquals(List.of(), registry.pollDue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void adoptsNothingWithoutOtherNodes() {
+        mockRedis(Set.of("node-a"));
+        OrderExpiryRegistry registry = registry(true, OVERDUE);
+
+        registry.heartbeat();
+
+        verify(redisTemplate, never()).execute(any(RedisScript.class), any(List.class), any(Object[].class));
+        verify(zSetOperations, never()).rangeByScoreWithScores(any(), Mockito.anyDouble(), Mockito.anyDouble(), Mockito.anyLong(), Mockito.anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void mockRedis(Set<Object> nodeIds) {
+        when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        when(redisTemplate.opsForSet()).thenReturn(setOperations);
+        when(redisTemplate.opsForValue()).thenReturn(Mockito.mock(ValueOperations.class));
+        when(setOperations.members("orders:expiry-nodes")).thenReturn(nodeIds);
+    }
+
+    private OrderExpiryRegistry registry(boolean redisEnabled, Duration retryDelay) {
+        return new OrderExpiryRegistry(redisTemplate, redisEnabled, "node-a", OVERDUE, 10, 64, retryDelay, 3, 10_000);
+    }
+}
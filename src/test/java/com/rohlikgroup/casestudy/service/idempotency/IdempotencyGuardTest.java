@@ -0,0 +1,183 @@
+package com.rohlikgroup.casestudy.service.idempotency;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rohlikgroup.casestudy.exception.IdempotencyKeyReusedException;
+import com.rohlikgroup.casestudy.exception.RequestInProgressException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class IdempotencyGuardTest {
+
+    private static final String KEY = IdempotencyGuard.KEY_PREFIX + "orders:abc";
+    private static final Map<String, Integer> REQUEST = Map.of("productId", 1);
+
+    @SuppressWarnings("unchecked")
+    private final RedisTemplate<String, Object> redisTemplate = mock(RedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, Object> valueOperations = mock(ValueOperations.class);
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+    }
+
+    @Test
+    void storesTheResultOfTheFirstRequest() {
+        IdempotencyGuard guard = guard(true);
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(true);
+
+        assertEquals("created", guard.execute("orders", "abc", REQUEST, String.class, () -> "created"));
+
+        verify(valueOperations).set(KEY, List.of(guard.hash(REQUEST), "created"), Duration.ofHours(24));
+    }
+
+    @Test
+    void replaysTheStoredResult() {
+        IdempotencyGuard guard = guard(true);
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn(List.of(guard.hash(REQUEST), 42L));
+
+        assertEquals(42L, guard.execute("orders", "abc", REQUEST, Long.class, () -> fail("must not run again")));
+    }
+
+    @Test
+    void rejectsAKeyReusedForADifferentRequest() {
+        IdempotencyGuard guard = guard(true);
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn(List.of(guard.hash(Map.of("productId", 2)), 42L));
+
+        assertThrows(IdempotencyKeyReusedException.class, () -> guard.execute("orders", "abc", REQUEST, Long.class, () -> fail("must not run")));
+    }
+
+    @Test
+    void rejectsADuplicateWhileTheRequestRunsOnAnotherNode() {
+        IdempotencyGuard guard = guard(true);
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(false);
+        when(valueOperations.get(KEY)).thenReturn(List.of(guard.hash(REQUEST), IdempotencyGuard.IN_FLIGHT, "other-node"));
+
+        RequestInProgressException e = assertThrows(RequestInProgressException.class,
+                () -> guard.execute("orders", "abc", REQUEST, Long.class, () -> fail("must not run")));
+        assertEquals(Duration.ofSeconds(1), e.getRetryAfter());
+        verify(valueOperations, times(1)).get(KEY);
+    }
+
+    @Test
+    void claimsAKeyReleasedBetweenTheClaimAndTheRead() {
+        IdempotencyGuard guard = guard(true);
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(false, true);
+        when(valueOperations.get(KEY)).thenReturn(null);
+
+        assertEquals(42L, guard.execute("orders", "abc", REQUEST, Long.class, () -> 42L));
+    }
+
+    @Test
+    void releasesTheKeyWhenTheRequestFails() {
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(true);
+
+        assertThrows(IllegalArgumentException.class, () -> guard(true).execute("orders", "abc", REQUEST, Long.class, () -> {
+            throw new IllegalArgumentException("invalid order");
+        }));
+
+        verify(redisTemplate).execute(argThat((RedisScript<Long> script) -> script.getScriptAsString().contains("DEL")), eq(List.of(KEY)), any(Object[].class));
+        verify(valueOperations, never()).set(any(), any(), any(Duration.class));
+    }
+
+    @Test
+    void renewsTheMarkerWhileTheRequestRuns() {
+        when(valueOperations.setIfAbsent(eq(KEY), any(), any(Duration.class))).thenReturn(true);
+        when(redisTemplate.execute(Mockito.<RedisScript<Long>>any(), anyList(), any(Object[].class))).thenReturn(1L);
+        IdempotencyGuard guard = new IdempotencyGuard(redisTemplate, new ObjectMapper(), true, Duration.ofHours(24), Duration.ofMillis(30), Duration.ofSeconds(1));
+
+        //runs for several in-flight TTLs
+        assertEquals(42L, guard.execute("orders", "abc", REQUEST, Long.class, () -> {
+            sleep(150);
+            return 42L;
+        }));
+
+        verify(redisTemplate, atLeast(3)).execute(argThat((RedisScript<Long> script) -> script.getScriptAsString().contains("PEXPIRE")), eq(List.of(KEY)), any(Object[].class));
+    }
+
+    @Test
+    void coalescesConcurrentDuplicatesOnTheSameNode() throws Exception {
+        IdempotencyGuard guard = guard(false);
+        AtomicInteger runs = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<Long>> results = IntStream.range(0, 4)
+                    .mapToObj(i -> executor.submit(() -> guard.execute("orders", "abc", REQUEST, Long.class, () -> {
+                        runs.incrementAndGet();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IllegalStateException(e);
+                        }
+                        return 42L;
+                    })))
+                    .toList();
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<Long> result : results) {
+                assertEquals(42L, result.get());
+            }
+        }
+
+        assertEquals(1, runs.get());
+        verifyNoInteractions(redisTemplate);
+    }
+
+    @Test
+    void rejectsADifferentRequestWhileTheFirstOneRunsOnTheSameNode() throws Exception {
+        IdempotencyGuard guard = guard(false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<Long> first = executor.submit(() -> guard.execute("orders", "abc", REQUEST, Long.class, () -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return 42L;
+            }));
+            started.await();
+
+            assertThrows(IdempotencyKeyReusedException.class, () -> guard.execute("orders", "abc", Map.of("productId", 2), Long.class, () -> fail("must not run")));
+            release.countDown();
+            assertEquals(42L, first.get());
+        }
+    }
+
+    private IdempotencyGuard guard(boolean redisEnabled) {
+        return new IdempotencyGuard(redisTemplate, new ObjectMapper(), redisEnabled, Duration.ofHours(24), Duration.ofSeconds(30), Duration.ofSeconds(1));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
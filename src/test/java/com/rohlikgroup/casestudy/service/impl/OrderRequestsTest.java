@@ -0,0 +1,65 @@
+package com.rohlikgroup.casestudy.service.impl;
+
+import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.entity.Order;
+import com.rohlikgroup.casestudy.entity.OrderStatus;
+import com.rohlikgroup.casestudy.entity.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrderRequestsTest {
+
+    @Test
+    void detectsDuplicateProducts() {
+        assertFalse(OrderRequests.hasDuplicateProducts(List.of()));
+        assertFalse(OrderRequests.hasDuplicateProducts(items(1, 2, 3)));
+        assertTrue(OrderRequests.hasDuplicateProducts(items(1, 2, 1)));
+        //beyond the pairwise check the IDs are sorted, values outside the Long cache must still compare equal
+        assertFalse(OrderRequests.hasDuplicateProducts(items(LongStream.rangeClosed(1_000, 1_050).toArray())));
+        long[] productIds = LongStream.rangeClosed(1_000, 1_050).toArray();
+        productIds[50] = 1_000;
+        assertTrue(OrderRequests.hasDuplicateProducts(items(productIds)));
+        assertTrue(OrderRequests.hasDuplicateProducts(items(1_000, 2_000, 1_000)));
+    }
+
+    @Test
+    void sortsItemsByProductId() {
+        List<OrderItemRequest> items = List.of(new OrderItemRequest(9L, 1), new OrderItemRequest(2L, 5), new OrderItemRequest(4L, 3));
+
+        List<OrderItemRequest> sorted = OrderRequests.sortedByProductId(items);
+
+        assertArrayEquals(new Long[]{2L, 4L, 9L}, OrderRequests.productIds(sorted));
+        assertArrayEquals(new Integer[]{5, 3, 1}, OrderRequests.quantities(sorted));
+        assertEquals(9L, items.get(0).productId());
+    }
+
+    @Test
+    void createsPendingOrder() {
+        Product product = new Product();
+        product.setId(7L);
+
+        Order order = OrderRequests.pendingOrder(List.of(new OrderItemRequest(7L, 3)), Map.of(7L, product));
+
+        assertEquals(OrderStatus.PENDING, order.getStatus());
+        assertEquals(1, order.getOrderItems().size());
+        assertSame(product, order.getOrderItems().get(0).getProduct());
+        assertSame(order, order.getOrderItems().get(0).getOrder());
+        assertEquals(3, order.getOrderItems().get(0).getQuantity());
+        assertArrayEquals(new Long[]{7L}, OrderRequests.productIds(List.of(new OrderItemRequest(7L, 3))));
+        assertArrayEquals(new Integer[]{3}, OrderRequests.quantities(List.of(new OrderItemRequest(7L, 3))));
+    }
+
+    private static List<OrderItemRequest> items(long... productIds) {
+        List<OrderItemRequest> items = new ArrayList<>(productIds.length);
+        for (long productId : productIds) {
+            items.add(new OrderItemRequest(productId, 1));
+        }
+        return items;
+    }
+}
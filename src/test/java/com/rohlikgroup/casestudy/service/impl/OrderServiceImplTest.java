@@ -1,34 +1,65 @@
 package com.rohlikgroup.casestudy.service.impl;
 
+import com.rohlikgroup.casestudy.cache.ProductCache;
 import com.rohlikgroup.casestudy.dto.CreateOrderRequest;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult;
+import com.rohlikgroup.casestudy.dto.CreateOrderResult.Outcome;
+import com.rohlikgroup.casestudy.dto.CreateOrdersRequest;
 import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.OrderItemDto;
 import com.rohlikgroup.casestudy.dto.OrderItemRequest;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
+import com.rohlikgroup.casestudy.dto.ProductDto;
 import com.rohlikgroup.casestudy.entity.Order;
-import com.rohlikgroup.casestudy.entity.OrderItem;
 import com.rohlikgroup.casestudy.entity.OrderStatus;
 import com.rohlikgroup.casestudy.entity.Product;
 import com.rohlikgroup.casestudy.exception.InsufficientStockException;
 import com.rohlikgroup.casestudy.mapper.OrderMapper;
 import com.rohlikgroup.casestudy.repository.OrderRepository;
 import com.rohlikgroup.casestudy.repository.ProductRepository;
+import com.rohlikgroup.casestudy.repository.ProductStatsRepository;
+import com.rohlikgroup.casestudy.repository.projection.ExpirableOrder;
+import com.rohlikgroup.casestudy.repository.projection.OrderItemRow;
+import com.rohlikgroup.casestudy.service.ExpireOrdersResult;
+import com.rohlikgroup.casestudy.service.ExpiryRunResult;
 import com.rohlikgroup.casestudy.service.OrderService;
+import com.rohlikgroup.casestudy.service.expiry.OrderExpiryRegistry;
+import com.rohlikgroup.casestudy.service.outbox.Outbox;
+import com.rohlikgroup.casestudy.service.outbox.OutboxEventType;
+import com.rohlikgroup.casestudy.service.retry.ConflictRetrier;
+import com.rohlikgroup.casestudy.service.stock.AvailableStock;
+import com.rohlikgroup.casestudy.service.stock.StockLedger;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
 import jakarta.validation.ConstraintViolationException;
 import jakarta.validation.Validator;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.convert.ApplicationConversionService;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
+import org.springframework.core.convert.ConversionService;
 import org.springframework.test.context.bean.override.mockito.MockitoBean;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
 import org.springframework.validation.beanvalidation.MethodValidationPostProcessor;
 
+import java.math.BigDecimal;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.junit.jupiter.api.DynamicTest.dynamicTest;
@@ -49,6 +80,31 @@ class OrderServiceImplTest {
             return ctx.getAutowireCapableBeanFactory().createBean(OrderServiceImpl.class);
         }
 
+        @Bean
+        public static ConversionService conversionService() {
+            return ApplicationConversionService.getSharedInstance();
+        }
+
+        @Bean
+        public TransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new TransactionTemplate(transactionManager);
+        }
+
+        @Bean
+        public MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        public ConflictRetrier conflictRetrier(MeterRegistry meterRegistry) {
+            return new ConflictRetrier(meterRegistry, 4, Duration.ofMillis(1), Duration.ofMillis(5), 16, Duration.ofMillis(100));
+        }
+
+        @Bean
+        public AvailableStock availableStock(StockLedger stockLedger) {
+            return new AvailableStock(stockLedger);
+        }
+
         @Bean
         public Validator validator() {
             return new LocalValidatorFactoryBean();
@@ -63,19 +119,33 @@ class OrderServiceImplTest {
 
     @Autowired
     private OrderService orderService;
+    @Autowired
+    private MeterRegistry meterRegistry;
     @MockitoBean
     private OrderRepository orderRepository;
     @MockitoBean
     private ProductRepository productRepository;
     @MockitoBean
+    private ProductStatsRepository productStatsRepository;
+    @MockitoBean
     private OrderMapper orderMapper;
+    @MockitoBean
+    private ProductCache productCache;
+    @MockitoBean
+    private PlatformTransactionManager transactionManager;
+    @MockitoBean
+    private OrderExpiryRegistry orderExpiryRegistry;
+    @MockitoBean
+    private StockLedger stockLedger;
+    @MockitoBean
+    private Outbox outbox;
 
     @TestFactory
     List<DynamicNode> createOrder() {
         Product p = new Product();
         p.setId(1L);
         p.setStockAmount(5);
-        when(productRepository.findById(1L)).thenReturn(Optional.of(p));
+        when(productRepository.findAllById(List.of(1L))).thenReturn(List.of(p));
         return List.of(
                 dynamicTest("Null DTO", () -> assertThrows(ConstraintViolationException.class, () -> orderService.createOrder(null))),
                 dynamicTest("Invalid DTO", () -> assertThrows(ConstraintViolationException.class, () -> orderService.createOrder(new CreateOrderRequest(List.of(new OrderItemRequest(1L, 0)))))),
@@ -87,6 +157,7 @@ class OrderServiceImplTest {
                 dynamicTest("OK", () -> {
                     when(orderMapper.map(Mockito.any(Order.class))).then(a -> new OrderDto(1L, a.<Order>getArgument(0).getStatus().toString(), List.of(), null));
                     when(orderRepository.save(Mockito.any(Order.class))).then(a -> a.getArgument(0));
+                    when(stockLedger.reserve(new Long[]{1L}, new Integer[]{4})).thenReturn(Set.of(1L));
 
                     OrderDto result = orderService.createOrder(new CreateOrderRequest(List.of(
                             new OrderItemRequest(1L, 4)
@@ -94,34 +165,256 @@ class OrderServiceImplTest {
 
                     assertEquals(new OrderDto(1L, "PENDING", List.of(), null), result);
 
-                    verify(productRepository).updateStockAmount(1L, -4);
+                    verify(stockLedger).reserve(new Long[]{1L}, new Integer[]{4});
+                    verify(orderExpiryRegistry).register(Mockito.any());
                 })
         );
     }
 
+    @Test
+    void createOrderWithInsufficientStock() {
+        Product p1 = new Product();
+        p1.setId(1L);
+        Product p2 = new Product();
+        p2.setId(2L);
+        when(productRepository.findAllById(List.of(1L, 2L))).thenReturn(List.of(p1, p2));
+        when(stockLedger.reserve(new Long[]{1L, 2L}, new Integer[]{1, 9})).thenReturn(Set.of(1L));
+
+        InsufficientStockException e = assertThrows(InsufficientStockException.class, () -> orderService.createOrder(new CreateOrderRequest(List.of(
+                new OrderItemRequest(1L, 1),
+                new OrderItemRequest(2L, 9)
+        ))));
+
+        assertEquals(List.of(2L), e.getProductIds());
+        verify(orderRepository, Mockito.never()).save(Mockito.any());
+        verify(orderExpiryRegistry, Mockito.never()).register(Mockito.any());
+        verify(outbox, Mockito.never()).append(Mockito.any(), Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void createOrderOfUnknownProduct() {
+        Product p1 = new Product();
+        p1.setId(1L);
+        when(productRepository.findAllById(List.of(1L, 3L))).thenReturn(List.of(p1));
+        when(stockLedger.reserve(new Long[]{1L, 3L}, new Integer[]{1, 1})).thenReturn(Set.of(1L));
+
+        EntityNotFoundException e = assertThrows(EntityNotFoundException.class, () -> orderService.createOrder(new CreateOrderRequest(List.of(
+                new OrderItemRequest(1L, 1),
+                new OrderItemRequest(3L, 1)
+        ))));
+
+        assertEquals("Product not found with id: 3", e.getMessage());
+        verify(orderRepository, Mockito.never()).save(Mockito.any());
+        verify(productCache, Mockito.never()).evict(Mockito.any());
+    }
+
+    @TestFactory
+    List<DynamicNode> cancelOrPayOrderInTerminalState() {
+        return Arrays.stream(new OrderStatus[]{OrderStatus.PAID, OrderStatus.CANCELED, OrderStatus.EXPIRED})
+                .map(status -> DynamicContainer.dynamicContainer(status.name(), List.of(
+                        dynamicTest("Cancel", () -> {
+                            Mockito.reset(orderRepository, stockLedger);
+                            when(orderRepository.findWithItemsById(1L)).thenReturn(Optional.of(order(1L, status)));
+
+                            assertThrows(IllegalStateException.class, () -> orderService.cancelOrder(1L));
+
+                            verify(orderRepository, Mockito.never()).saveAndFlush(Mockito.any());
+                            verify(stockLedger, Mockito.never()).releaseOrders(Mockito.any());
+                        }),
+                        dynamicTest("Pay", () -> {
+                            Mockito.reset(orderRepository, productStatsRepository);
+                            when(orderRepository.findWithItemsById(1L)).thenReturn(Optional.of(order(1L, status)));
+
+                            assertThrows(IllegalStateException.class, () -> orderService.setOrderPaid(1L));
+
+                            verify(orderRepository, Mockito.never()).saveAndFlush(Mockito.any());
+                            verify(productStatsRepository, Mockito.never()).addPaidOrders(Mockito.any());
+                        }))))
+                .map(DynamicNode.class::cast)
+                .toList();
+    }
+
+    @Test
+    void cancelOrPayUnknownOrder() {
+        when(orderRepository.findWithItemsById(1L)).thenReturn(Optional.empty());
+
+        assertThrows(EntityNotFoundException.class, () -> orderService.cancelOrder(1L));
+        assertThrows(EntityNotFoundException.class, () -> orderService.setOrderPaid(1L));
+    }
+
+    @Test
+    void createOrders() {
+        Product p1 = new Product();
+        p1.setId(1L);
+        Product p2 = new Product();
+        p2.setId(2L);
+        when(productRepository.findAllById(Mockito.any())).thenReturn(List.of(p1, p2));
+        when(stockLedger.reserve(new Long[]{1L, 2L}, new Integer[]{3, 6})).thenReturn(Set.of(1L));
+        when(stockLedger.reserve(new Long[]{2L}, new Integer[]{1})).thenReturn(Set.of(2L));
+        when(stockLedger.reserve(new Long[]{2L}, new Integer[]{5})).thenReturn(Set.of());
+        when(orderRepository.saveAll(Mockito.<List<Order>>any())).then(a -> a.getArgument(0));
+        when(orderMapper.map(Mockito.any(Order.class))).then(a -> new OrderDto(null, a.<Order>getArgument(0).getStatus().toString(), List.of(), null));
+        double reservedBefore = meterRegistry.counter("orders.stock.reservations", "outcome", "reserved").count();
+        double outOfStockBefore = meterRegistry.counter("orders.stock.reservations", "outcome", "out_of_stock").count();
+
+        List<CreateOrderResult> results = orderService.createOrders(new CreateOrdersRequest(List.of(
+                new CreateOrderRequest(List.of(new OrderItemRequest(1L, 2), new OrderItemRequest(2L, 1))),
+                new CreateOrderRequest(List.of(new OrderItemRequest(1L, 1), new OrderItemRequest(2L, 5))),
+                new CreateOrderRequest(List.of(new OrderItemRequest(3L, 1))),
+                new CreateOrderRequest(List.of(new OrderItemRequest(1L, 0))),
+                new CreateOrderRequest(List.of(new OrderItemRequest(1L, 1), new OrderItemRequest(1L, 1)))
+        )));
+
+        assertEquals(List.of(Outcome.CREATED, Outcome.INSUFFICIENT_STOCK, Outcome.PRODUCT_NOT_FOUND, Outcome.INVALID, Outcome.INVALID),
+                results.stream().map(CreateOrderResult::outcome).toList());
+        assertEquals(new OrderDto(null, "PENDING", List.of(), null), results.get(0).order());
+        //the stock reserved in bulk for the rejected order is given back
+        verify(stockLedger).release(new Long[]{1L}, new Integer[]{1});
+        verify(orderExpiryRegistry, Mockito.times(1)).register(Mockito.any());
+        assertEquals(3, meterRegistry.counter("orders.stock.reservations", "outcome", "reserved").count() - reservedBefore);
+        assertEquals(1, meterRegistry.counter("orders.stock.reservations", "outcome", "out_of_stock").count() - outOfStockBefore);
+    }
+
+    @Test
+    void createOrdersReservesInProductIdOrder() {
+        Product p1 = new Product();
+        p1.setId(1L);
+        Product p2 = new Product();
+        p2.setId(2L);
+        when(productRepository.findAllById(Mockito.any())).thenReturn(List.of(p1, p2));
+        when(stockLedger.reserve(new Long[]{1L, 2L}, new Integer[]{3, 1})).thenReturn(Set.of(1L, 2L));
+        when(orderRepository.saveAll(Mockito.<List<Order>>any())).then(a -> a.getArgument(0));
+        when(orderMapper.map(Mockito.any(Order.class))).then(a -> new OrderDto(null, a.<Order>getArgument(0).getStatus().toString(), List.of(), null));
+
+        //the first order lists the products in descending order, they are still locked in ascending order
+        List<CreateOrderResult> results = orderService.createOrders(new CreateOrdersRequest(List.of(
+                new CreateOrderRequest(List.of(new OrderItemRequest(2L, 1), new OrderItemRequest(1L, 2))),
+                new CreateOrderRequest(List.of(new OrderItemRequest(1L, 1)))
+        )));
+
+        assertEquals(List.of(Outcome.CREATED, Outcome.CREATED), results.stream().map(CreateOrderResult::outcome).toList());
+        verify(stockLedger).reserve(new Long[]{1L, 2L}, new Integer[]{3, 1});
+    }
+
+    @Test
+    void createTooManyOrders() {
+        List<CreateOrderRequest> orders = Collections.nCopies(501, new CreateOrderRequest(List.of(new OrderItemRequest(1L, 1))));
+
+        assertThrows(IllegalArgumentException.class, () -> orderService.createOrders(new CreateOrdersRequest(orders)));
+    }
+
     @Test
     void releaseUnpaidOrders() {
-        Order p = new Order();
-        p.setId(1L);
-        p.setStatus(OrderStatus.PENDING);
-        OrderItem orderItem = new OrderItem();
-        Product product = new Product();
-        product.setId(2L);
-        orderItem.setProduct(product);
-        orderItem.setQuantity(5);
-        p.setOrderItems(List.of(orderItem));
-        when(orderRepository.findAllByStatusAndCreatedAtBefore(Mockito.eq(OrderStatus.PENDING), Mockito.any(LocalDateTime.class))).thenReturn(List.of(p));
-        when(orderRepository.findById(1L)).thenReturn(Optional.of(p));
+        LocalDateTime createdAt = LocalDateTime.now().minusMinutes(45);
+        when(orderRepository.tryAdvisoryTransactionLock(Mockito.anyLong())).thenReturn(true);
+        when(orderRepository.lockPendingOrdersCreatedBefore(Mockito.any(LocalDateTime.class), Mockito.eq(500)))
+                .thenReturn(List.of(expirableOrder(1L, createdAt), expirableOrder(3L, createdAt.plusMinutes(1))));
+        when(stockLedger.releaseOrders(new Long[]{1L, 3L})).thenReturn(Set.of(2L));
+
+        ExpiryRunResult result = orderService.releaseUnpaidOrders();
+
+        assertTrue(result.lockAcquired());
+        assertEquals(2, result.expiredOrders());
+        assertFalse(result.backlogRemaining());
+        assertTrue(result.lag().compareTo(Duration.ofMinutes(14)) > 0);
+        verify(orderRepository).updateStatus(List.of(1L, 3L), OrderStatus.EXPIRED);
+        verify(productCache).evict(Set.of(2L));
+        verify(orderExpiryRegistry).unregister(List.of(1L, 3L));
+    }
+
+    @Test
+    void expireOrders() {
+        when(orderRepository.lockPendingOrderIdsCreatedBefore(Mockito.eq(new Long[]{1L, 2L}), Mockito.any(LocalDateTime.class))).thenReturn(List.of(2L));
+        when(stockLedger.releaseOrders(new Long[]{2L})).thenReturn(Set.of(5L));
+        when(orderRepository.findItemRowsByOrderIdIn(List.of(2L)))
+                .thenReturn(List.of(new OrderItemRow(2L, OrderStatus.EXPIRED, null, 7L, 3, 5L, "Milk", 10, new BigDecimal("19.90"))));
+
+        when(orderRepository.findPendingIds(new Long[]{1L, 2L})).thenReturn(List.of(1L));
+
+        //the order 1 is still pending, but locked or not due yet
+        assertEquals(new ExpireOrdersResult(List.of(2L), List.of()), orderService.expireOrders(List.of(1L, 2L)));
+
+        verify(orderRepository).updateStatus(List.of(2L), OrderStatus.EXPIRED);
+        verify(orderExpiryRegistry).unregister(List.of(2L));
+        //the event carries the whole order, like the other order events
+        OrderDto expiredOrder = new OrderDto(2L, "EXPIRED", List.of(new OrderItemDto(7L, new ProductDto(5L, "Milk", 10, new BigDecimal("19.90")), 3)), null);
+        verify(outbox).appendAll(OutboxEventType.ORDER_EXPIRED, Map.of(2L, expiredOrder));
+    }
+
+    @Test
+    void setOrdersPaid() {
+        when(orderRepository.payPendingOrders(Mockito.eq(new Long[]{1L, 2L, 3L}), Mockito.any(LocalDateTime.class))).thenReturn(List.of(1L));
+        when(orderRepository.findItemRowsByOrderIdIn(List.of(1L)))
+                .thenReturn(List.of(new OrderItemRow(1L, OrderStatus.PAID, LocalDateTime.now(), null, null, null, null, null, null)));
+        when(orderRepository.findExistingIds(new Long[]{1L, 2L, 3L})).thenReturn(List.of(1L, 2L));
+
+        List<PayOrderResult> results = orderService.setOrdersPaid(new PayOrdersRequest(List.of(1L, 2L, 1L, 3L)));
+
+        assertEquals(List.of(PayOrderResult.Outcome.PAID, PayOrderResult.Outcome.NOT_PENDING, PayOrderResult.Outcome.NOT_PENDING, PayOrderResult.Outcome.NOT_FOUND),
+                results.stream().map(PayOrderResult::outcome).toList());
+        assertEquals("PAID", results.get(0).order().status());
+        verify(productStatsRepository).addPaidOrders(new Long[]{1L});
+        verify(orderExpiryRegistry).unregister(List.of(1L));
+    }
+
+    @Test
+    void expireOrdersNoLongerPending() {
+        //paid, canceled, already expired or not yet due orders are not locked by the expiry
+        when(orderRepository.lockPendingOrderIdsCreatedBefore(Mockito.eq(new Long[]{1L, 2L}), Mockito.any(LocalDateTime.class))).thenReturn(List.of());
+        when(orderRepository.findPendingIds(new Long[]{1L, 2L})).thenReturn(List.of(2L));
+
+        //the order 1 was paid or canceled, possibly on another node, so its deadline is dropped instead of retried
+        assertEquals(new ExpireOrdersResult(List.of(), List.of(1L)), orderService.expireOrders(List.of(1L, 2L)));
+        verify(orderExpiryRegistry).unregister(List.of(1L));
+
+        verify(stockLedger, Mockito.never()).releaseOrders(Mockito.any());
+        verify(orderRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.any());
+        verify(productStatsRepository, Mockito.never()).addReleasedOrders(Mockito.any());
+    }
 
-        orderService.releaseUnpaidOrders();
+    @Test
+    void releaseUnpaidOrdersWithoutStaleOrders() {
+        when(orderRepository.tryAdvisoryTransactionLock(Mockito.anyLong())).thenReturn(true);
+        when(orderRepository.lockPendingOrdersCreatedBefore(Mockito.any(LocalDateTime.class), Mockito.eq(500))).thenReturn(List.of());
+
+        ExpiryRunResult result = orderService.releaseUnpaidOrders();
+
+        assertTrue(result.lockAcquired());
+        assertEquals(0, result.expiredOrders());
+        assertEquals(Duration.ZERO, result.lag());
+        verify(stockLedger, Mockito.never()).releaseOrders(Mockito.any());
+        verify(orderRepository, Mockito.never()).updateStatus(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void releaseUnpaidOrdersLockedByAnotherNode() {
+        when(orderRepository.tryAdvisoryTransactionLock(Mockito.anyLong())).thenReturn(false);
+
+        assertEquals(ExpiryRunResult.notAcquired(), orderService.releaseUnpaidOrders());
+
+        verify(orderRepository, Mockito.never()).lockPendingOrdersCreatedBefore(Mockito.any(), Mockito.anyInt());
+    }
+
+    private static Order order(Long id, OrderStatus status) {
+        Order order = new Order();
+        order.setId(id);
+        order.setStatus(status);
+        order.setOrderItems(List.of());
+        return order;
+    }
 
-        Order p2 = new Order();
-        p2.setId(1L);
-        p2.setStatus(OrderStatus.CANCELED);
-        p2.setOrderItems(List.of(orderItem));
-        verify(orderRepository).save(p2);
-        verify(productRepository).updateStockAmount(2L, 5);
+    private static ExpirableOrder expirableOrder(Long id, LocalDateTime createdAt) {
+        return new ExpirableOrder() {
+            @Override
+            public Long getId() {
+                return id;
+            }
 
+            @Override
+            public LocalDateTime getCreatedAt() {
+                return createdAt;
+            }
+        };
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.rohlikgroup.casestudy.service.outbox;
+
+import com.rohlikgroup.casestudy.repository.OutboxRepository;
+import com.rohlikgroup.casestudy.support.InMemoryOutboxPublisher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.*;
+
+class OutboxRelayTest {
+
+    private final OutboxRepository outboxRepository = mock(OutboxRepository.class);
+    private final InMemoryOutboxPublisher publisher = new InMemoryOutboxPublisher();
+    private final List<OutboxEvent> outbox = new ArrayList<>();
+    private OutboxRelay relay;
+
+    @BeforeEach
+    void setUp() {
+        when(outboxRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(true);
+        when(outboxRepository.findNextBatch(anyInt())).then(a -> List.copyOf(outbox.subList(0, Math.min(a.<Integer>getArgument(0), outbox.size()))));
+        doAnswer(a -> outbox.removeIf(event -> List.of(a.<Long[]>getArgument(0)).contains(event.id())))
+                .when(outboxRepository).delete(any());
+        relay = new OutboxRelay(outboxRepository, publisher, new TransactionTemplate(mock(PlatformTransactionManager.class)),
+                new SimpleMeterRegistry(), 2, 10);
+    }
+
+    @Test
+    void publishesAllEventsInOrderAndDeletesThem() {
+        LongStream.rangeClosed(1, 5).forEach(id -> outbox.add(event(id)));
+
+        relay.relay();
+
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), publisher.published().stream().map(OutboxEvent::id).toList());
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    void keepsEventsWhenPublishingFails() {
+        LongStream.rangeClosed(1, 3).forEach(id -> outbox.add(event(id)));
+        publisher.failNext();
+
+        relay.relay();
+        assertEquals(3, outbox.size());
+
+        relay.relay();
+        assertEquals(List.of(1L, 2L, 3L), publisher.published().stream().map(OutboxEvent::id).toList());
+        assertTrue(outbox.isEmpty());
+    }
+
+    @Test
+    void skipsTheRunWhileAnotherNodeRelays() {
+        outbox.add(event(1));
+        when(outboxRepository.tryAdvisoryTransactionLock(anyLong())).thenReturn(false);
+
+        relay.relay();
+
+        assertTrue(publisher.published().isEmpty());
+        verify(outboxRepository, never()).findNextBatch(anyInt());
+    }
+
+    private static OutboxEvent event(long id) {
+        return new OutboxEvent(id, "order", id % 2, OutboxEventType.ORDER_CREATED.name(), "{}", LocalDateTime.now());
+    }
+}
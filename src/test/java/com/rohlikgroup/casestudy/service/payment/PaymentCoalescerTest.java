@@ -0,0 +1,118 @@
+package com.rohlikgroup.casestudy.service.payment;
+
+import com.rohlikgroup.casestudy.dto.OrderDto;
+import com.rohlikgroup.casestudy.dto.PayOrderResult;
+import com.rohlikgroup.casestudy.dto.PayOrdersRequest;
+import com.rohlikgroup.casestudy.service.OrderService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.persistence.EntityNotFoundException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaymentCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final OrderService orderService = Mockito.mock(OrderService.class);
+    private final PaymentCoalescer paymentCoalescer = new PaymentCoalescer(orderService, meterRegistry, true, Duration.ofMillis(200), Duration.ofMillis(500), 500);
+
+    @AfterEach
+    void stop() throws InterruptedException {
+        paymentCoalescer.stop();
+    }
+
+    @Test
+    void paysConcurrentConfirmationsInOneBatch() throws Exception {
+        when(orderService.setOrdersPaid(Mockito.any())).then(a -> {
+            List<PayOrderResult> results = new ArrayList<>();
+            for (Long orderId : a.<PayOrdersRequest>getArgument(0).orderIds()) {
+                results.add(PayOrderResult.paid(new OrderDto(orderId, "PAID", List.of(), null)));
+            }
+            return results;
+        });
+        paymentCoalescer.start();
+
+        List<Future<OrderDto>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            for (long orderId = 1; orderId <= 4; orderId++) {
+                Long id = orderId;
+                futures.add(executor.submit(() -> paymentCoalescer.pay(id)));
+            }
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(i + 1L, futures.get(i).get().id());
+        }
+        verify(orderService).setOrdersPaid(Mockito.any());
+        assertEquals(4, meterRegistry.summary("orders.payment.batch.size").totalAmount());
+    }
+
+    @Test
+    void reportsTheOutcomeOfEveryOrder() {
+        when(orderService.setOrdersPaid(new PayOrdersRequest(List.of(1L))))
+                .thenReturn(List.of(PayOrderResult.failed(1L, PayOrderResult.Outcome.NOT_PENDING, "Only pending orders can be paid for")));
+        when(orderService.setOrdersPaid(new PayOrdersRequest(List.of(2L))))
+                .thenReturn(List.of(PayOrderResult.failed(2L, PayOrderResult.Outcome.NOT_FOUND, "Order not found")));
+        when(orderService.setOrdersPaid(new PayOrdersRequest(List.of(3L)))).thenThrow(new IllegalStateException("Database unavailable"));
+        paymentCoalescer.start();
+
+        assertThrows(IllegalStateException.class, () -> paymentCoalescer.pay(1L));
+        assertThrows(EntityNotFoundException.class, () -> paymentCoalescer.pay(2L));
+        assertEquals("Database unavailable", assertThrows(IllegalStateException.class, () -> paymentCoalescer.pay(3L)).getMessage());
+    }
+
+    @Test
+    void failsWaitingPaymentsAndPaysDirectlyWhenTheDispatcherDies() {
+        when(orderService.setOrdersPaid(Mockito.any())).thenThrow(new OutOfMemoryError("Java heap space"));
+        OrderDto paidOrder = new OrderDto(2L, "PAID", List.of(), null);
+        when(orderService.setOrderPaid(2L)).thenReturn(paidOrder);
+        paymentCoalescer.start();
+
+        assertEquals("The payment dispatcher stopped", assertThrows(IllegalStateException.class, () -> paymentCoalescer.pay(1L)).getMessage());
+        assertEquals(paidOrder, paymentCoalescer.pay(2L));
+    }
+
+    @Test
+    void givesUpWaitingForASlowBatch() {
+        CountDownLatch release = new CountDownLatch(1);
+        when(orderService.setOrdersPaid(Mockito.any())).then(a -> {
+            release.await();
+            return List.of(PayOrderResult.paid(new OrderDto(1L, "PAID", List.of(), null)));
+        });
+        paymentCoalescer.start();
+
+        try {
+            assertThrows(IllegalStateException.class, () -> paymentCoalescer.pay(1L));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    void paysDirectlyInsideATransaction() {
+        OrderDto paidOrder = new OrderDto(1L, "PAID", List.of(), null);
+        when(orderService.setOrderPaid(1L)).thenReturn(paidOrder);
+        paymentCoalescer.start();
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertEquals(paidOrder, paymentCoalescer.pay(1L));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+        verify(orderService, Mockito.never()).setOrdersPaid(Mockito.any());
+    }
+}
@@ -0,0 +1,126 @@
+package com.rohlikgroup.casestudy.service.retry;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConflictRetrierTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ConflictRetrier retrier = new ConflictRetrier(meterRegistry, 3, Duration.ofMillis(1), Duration.ofMillis(5), 16, Duration.ofSeconds(1));
+
+    @Test
+    void retriesConflictsUntilTheActionSucceeds() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retrier.execute("pay", 1L, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new OptimisticLockingFailureException("version changed");
+            }
+            if (attempts.get() == 2) {
+                throw new PessimisticLockingFailureException("deadlock detected");
+            }
+            return "paid";
+        });
+
+        assertEquals("paid", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, meterRegistry.counter("conflict.retries", "operation", "pay").count());
+        assertEquals(0, meterRegistry.counter("conflict.retry.exhausted", "operation", "pay").count());
+    }
+
+    @Test
+    void givesUpAfterTheMaximumAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(OptimisticLockingFailureException.class, () -> retrier.execute("cancel", 1L, () -> {
+            attempts.incrementAndGet();
+            throw new OptimisticLockingFailureException("version changed");
+        }));
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, meterRegistry.counter("conflict.retry.exhausted", "operation", "cancel").count());
+    }
+
+    @Test
+    void doesNotRetryOtherFailuresOrInsideATransaction() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> retrier.execute("pay", 1L, () -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("Only pending orders can be paid for");
+        }));
+        assertEquals(1, attempts.get());
+
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        try {
+            assertThrows(OptimisticLockingFailureException.class, () -> retrier.execute("pay", 1L, () -> {
+                attempts.incrementAndGet();
+                throw new OptimisticLockingFailureException("version changed");
+            }));
+        } finally {
+            TransactionSynchronizationManager.setActualTransactionActive(false);
+        }
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void serializesActionsOfTheSameOrder() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> futures = IntStream.range(0, 4)
+                    .<Future<?>>mapToObj(thread -> executor.submit(() -> {
+                        for (int i = 0; i < 50; i++) {
+                            retrier.execute("pay", 42L, () -> {
+                                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                                Thread.yield();
+                                return running.decrementAndGet();
+                            });
+                        }
+                    }))
+                    .toList();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void retriesAnnotatedMethods() {
+        AspectJProxyFactory proxyFactory = new AspectJProxyFactory(new Transitions());
+        proxyFactory.addAspect(new ConflictRetryAspect(retrier));
+        Transitions transitions = proxyFactory.getProxy();
+
+        assertEquals(2, transitions.pay(7L));
+        assertEquals(1, meterRegistry.counter("conflict.retries", "operation", "pay").count());
+    }
+
+    static class Transitions {
+
+        private int attempts;
+
+        @RetryOnConflict("pay")
+        public int pay(Long orderId) {
+            if (++attempts == 1) {
+                throw new OptimisticLockingFailureException("version changed");
+            }
+            return attempts;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import com.rohlikgroup.casestudy.repository.StockJournalRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class InMemoryStockLedgerTest {
+
+    private final StockJournalRepository stockJournalRepository = mock(StockJournalRepository.class);
+    private InMemoryStockLedger ledger;
+
+    @BeforeEach
+    void setUp() {
+        when(stockJournalRepository.findAllStockAmounts()).thenReturn(Map.of(1L, 10L, 2L, 3L));
+        ledger = new InMemoryStockLedger(stockJournalRepository, mock(TransactionTemplate.class));
+        ledger.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void reservesOnlyProductsWithEnoughStock() {
+        Set<Long> reserved = ledger.reserve(new Long[]{1L, 2L, 3L}, new Integer[]{4, 5, 1});
+
+        assertEquals(Set.of(1L), reserved);
+        verify(stockJournalRepository).append(new Long[]{1L}, new Integer[]{-4});
+        assertEquals(Set.of(), ledger.reserve(new Long[]{1L}, new Integer[]{7}));
+        assertEquals(Set.of(1L), ledger.reserve(new Long[]{1L}, new Integer[]{6}));
+    }
+
+    @Test
+    void givesReservationsBackOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        ledger.reserve(new Long[]{1L, 2L}, new Integer[]{10, 3});
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        assertEquals(Set.of(1L, 2L), ledger.reserve(new Long[]{1L, 2L}, new Integer[]{10, 3}));
+    }
+
+    @Test
+    void appliesReleasesOnlyAfterCommit() {
+        when(stockJournalRepository.findQuantitiesOfOrders(new Long[]{7L})).thenReturn(Map.of(2L, 5));
+
+        TransactionSynchronizationManager.initSynchronization();
+        assertEquals(Set.of(2L), ledger.releaseOrders(new Long[]{7L}));
+        verify(stockJournalRepository).append(new Long[]{2L}, new Integer[]{5});
+        assertEquals(Set.of(), ledger.reserve(new Long[]{2L}, new Integer[]{8}));
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+        assertEquals(Set.of(2L), ledger.reserve(new Long[]{2L}, new Integer[]{8}));
+    }
+
+    @Test
+    void setsStockByJournalingTheDifference() {
+        ledger.setStock(1L, 4);
+        ledger.setStock(2L, 3);
+
+        verify(stockJournalRepository).append(new Long[]{1L}, new Integer[]{-6});
+        verify(stockJournalRepository, never()).append(any(), eq(new Integer[]{0}));
+        assertEquals(Set.of(), ledger.reserve(new Long[]{1L}, new Integer[]{5}));
+        assertEquals(Set.of(1L), ledger.reserve(new Long[]{1L}, new Integer[]{4}));
+    }
+
+    @Test
+    void reportsTheAvailableStockFromMemory() {
+        ledger.reserve(new Long[]{1L}, new Integer[]{4});
+
+        //the product rows still hold the stock before the journal is flushed
+        assertEquals(Map.of(1L, 6, 2L, 3), ledger.findAvailableStock(Map.of(1L, 10, 2L, 3, 3L, 1)));
+        verify(stockJournalRepository, never()).findStockAmount(any());
+    }
+
+    @Test
+    void neverOversellsUnderContention() throws Exception {
+        AtomicInteger reservedUnits = new AtomicInteger();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            List<Future<?>> futures = IntStream.range(0, 8)
+                    .<Future<?>>mapToObj(thread -> executor.submit(() -> {
+                        for (int i = 0; i < 1_000; i++) {
+                            if (!ledger.reserve(new Long[]{1L}, new Integer[]{1}).isEmpty()) {
+                                reservedUnits.incrementAndGet();
+                            }
+                        }
+                    }))
+                    .toList();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertEquals(10, reservedUnits.get());
+    }
+
+    private static void complete(int status) {
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            synchronizations.forEach(TransactionSynchronization::afterCommit);
+        }
+        synchronizations.forEach(synchronization -> synchronization.afterCompletion(status));
+    }
+}
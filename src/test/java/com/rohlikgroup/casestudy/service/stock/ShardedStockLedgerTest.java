@@ -0,0 +1,101 @@
+package com.rohlikgroup.casestudy.service.stock;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs the sharded inventory mode against the database configured in {@code application.properties}, every test is
+ * rolled back.
+ */
+@SpringBootTest(properties = {"app.inventory.mode=sharded", "app.inventory.shard-count=4"})
+@Transactional
+class ShardedStockLedgerTest {
+
+    @Autowired
+    private ShardedStockLedger ledger;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private long productId;
+
+    @BeforeEach
+    void createProduct() {
+        productId = jdbcTemplate.queryForObject(
+                "INSERT INTO products (id, name, stock_amount, price) VALUES (nextval('products_id_seq'), 'Sharded', 0, 1) RETURNING id", Long.class);
+    }
+
+    @Test
+    void reservesAndReleasesAcrossShards() {
+        ledger.setStock(productId, 10);
+        assertEquals(List.of(3, 3, 2, 2), shards());
+
+        //no single shard holds 5, so the quantity is collected across them
+        assertEquals(Set.of(productId), ledger.reserve(new Long[]{productId}, new Integer[]{5}));
+        assertEquals(5, shards().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, rowStock());
+        assertEquals(Map.of(productId, 5), ledger.findAvailableStock(Map.of(productId, 0)));
+
+        ledger.release(new Long[]{productId}, new Integer[]{5});
+        assertEquals(10, shards().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(0, rowStock());
+        assertEquals(Map.of(productId, 10), ledger.findAvailableStock(Map.of(productId, 0)));
+    }
+
+    @Test
+    void rejectsReservationsWhenEveryShardRunsOut() {
+        ledger.setStock(productId, 4);
+
+        assertEquals(Set.of(), ledger.reserve(new Long[]{productId}, new Integer[]{5}));
+        assertEquals(Set.of(productId), ledger.reserve(new Long[]{productId}, new Integer[]{4}));
+        assertEquals(List.of(0, 0, 0, 0), shards());
+
+        assertEquals(Set.of(), ledger.reserve(new Long[]{productId}, new Integer[]{1}));
+        assertEquals(Map.of(productId, 0), ledger.findAvailableStock(Map.of(productId, 0)));
+    }
+
+    @Test
+    void reservesStockSplitBetweenTheRowAndTheShards() {
+        ledger.setStock(productId, 3);
+        //stock released while every shard was locked goes back to the product row
+        jdbcTemplate.update("UPDATE products SET stock_amount = 3 WHERE id = ?", productId);
+        assertEquals(Map.of(productId, 6), ledger.findAvailableStock(Map.of(productId, 3)));
+
+        //neither the row nor any shard holds 5 on its own
+        assertEquals(Set.of(productId), ledger.reserve(new Long[]{productId}, new Integer[]{5}));
+        assertEquals(0, rowStock());
+        assertEquals(1, shards().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(Set.of(), ledger.reserve(new Long[]{productId}, new Integer[]{2}));
+    }
+
+    @Test
+    void keepsTheStockOfProductsWithoutShardsOnTheirRow() {
+        jdbcTemplate.update("UPDATE products SET stock_amount = 5 WHERE id = ?", productId);
+
+        assertEquals(Set.of(productId), ledger.reserve(new Long[]{productId}, new Integer[]{3}));
+        assertEquals(2, rowStock());
+        assertEquals(Set.of(), ledger.reserve(new Long[]{productId}, new Integer[]{3}));
+
+        ledger.release(new Long[]{productId}, new Integer[]{3});
+        assertEquals(5, rowStock());
+        assertEquals(List.of(), shards());
+        assertEquals(Map.of(), ledger.findAvailableStock(Map.of(productId, 5)));
+    }
+
+    private List<Integer> shards() {
+        return jdbcTemplate.queryForList("SELECT stock_amount FROM product_stock_shards WHERE product_id = ? ORDER BY shard", Integer.class, productId);
+    }
+
+    private int rowStock() {
+        return jdbcTemplate.queryForObject("SELECT stock_amount FROM products WHERE id = ?", Integer.class, productId);
+    }
+}
@@ -0,0 +1,34 @@
+package com.rohlikgroup.casestudy.support;
+
+import com.rohlikgroup.casestudy.service.outbox.OutboxEvent;
+import com.rohlikgroup.casestudy.service.outbox.OutboxPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Local stand-in for the Redis stream publisher that keeps the published events in memory. Can be told to fail the
+ * next publication to simulate an unavailable stream.
+ */
+public class InMemoryOutboxPublisher implements OutboxPublisher {
+
+    private final List<OutboxEvent> published = new ArrayList<>();
+    private boolean failNext;
+
+    @Override
+    public synchronized void publish(List<OutboxEvent> events) {
+        if (failNext) {
+            failNext = false;
+            throw new IllegalStateException("Stream unavailable");
+        }
+        published.addAll(events);
+    }
+
+    public synchronized List<OutboxEvent> published() {
+        return List.copyOf(published);
+    }
+
+    public synchronized void failNext() {
+        failNext = true;
+    }
+}
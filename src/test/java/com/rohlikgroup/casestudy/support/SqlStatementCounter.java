@@ -0,0 +1,31 @@
+package com.rohlikgroup.casestudy.support;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts the SQL statements Hibernate prepares on the current thread. Registered through the
+ * {@code hibernate.session_factory.statement_inspector} property.
+ * <p>
+ * Id sequence calls are not counted, one call allocates a block of ids, so whether a statement needs one depends on
+ * the statements that ran before it.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<Integer> COUNT = ThreadLocal.withInitial(() -> 0);
+
+    public static void reset() {
+        COUNT.set(0);
+    }
+
+    public static int count() {
+        return COUNT.get();
+    }
+
+    @Override
+    public String inspect(String sql) {
+        if (!sql.contains("nextval(")) {
+            COUNT.set(COUNT.get() + 1);
+        }
+        return sql;
+    }
+}